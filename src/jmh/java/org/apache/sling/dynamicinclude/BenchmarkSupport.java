@@ -0,0 +1,215 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.ComponentContext;
+
+/**
+ * Lightweight stubs for the benchmarks. The Sling interfaces are implemented with dynamic proxies
+ * answering only the methods used on the include path, so the measurements aren't dominated by a
+ * mocking framework.
+ */
+public final class BenchmarkSupport {
+
+    /**
+     * Answer of a stubbed method, receiving the method arguments.
+     */
+    public interface Answer {
+        Object answer(Object[] args);
+    }
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Creates a stub of given interface. The answers are keyed by method name and are either
+     * constant values or {@link Answer}s. Other methods return {@code null}, {@code false} or 0.
+     */
+    public static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        final Object stub = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            final Object answer = answers.get(method.getName());
+            if (answer instanceof Answer) {
+                return ((Answer) answer).answer(args);
+            } else if (answer != null) {
+                return answer;
+            } else if (method.getName().equals("hashCode") && method.getParameterCount() == 0) {
+                return System.identityHashCode(proxy);
+            } else if (method.getName().equals("equals") && method.getParameterCount() == 1) {
+                return proxy == args[0];
+            }
+            return defaultValue(method.getReturnType());
+        });
+        return type.cast(stub);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        }
+        return null;
+    }
+
+    /**
+     * Creates an activated configuration. The properties use the names of the OSGi configuration
+     * (e.g. {@code include-filter.config.resource-types}), the other attributes have their
+     * default values.
+     */
+    public static Configuration configuration(Map<String, Object> properties) {
+        return new Configuration(componentProperties(Configuration.Config.class, properties));
+    }
+
+    /**
+     * Creates a component property type instance, like the one passed to an activate method.
+     */
+    public static <A extends Annotation> A componentProperties(Class<A> type, Map<String, Object> properties) {
+        final Object config = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    final Object value = properties.get(propertyName(method.getName()));
+                    return value != null ? value : method.getDefaultValue();
+                });
+        return type.cast(config);
+    }
+
+    // the name mapping of the component property types
+    private static String propertyName(String methodName) {
+        return methodName.replace("$_$", "-").replace("__", "\u0000").replace('_', '.').replace('\u0000', '_');
+    }
+
+    /**
+     * Sets a field annotated with {@code @Reference}.
+     */
+    public static void inject(Object target, String fieldName, Object value) {
+        try {
+            final Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a component context whose bundle serves the resources of the class path, as needed
+     * to activate the JSI generator.
+     */
+    public static ComponentContext componentContext() {
+        final Map<String, Object> bundleAnswers = new HashMap<>();
+        bundleAnswers.put("getResource", (Answer) args -> BenchmarkSupport.class.getClassLoader().getResource((String) args[0]));
+        final Bundle bundle = stub(Bundle.class, bundleAnswers);
+        final Map<String, Object> bundleContextAnswers = new HashMap<>();
+        bundleContextAnswers.put("getBundle", bundle);
+        final BundleContext bundleContext = stub(BundleContext.class, bundleContextAnswers);
+        final Map<String, Object> contextAnswers = new HashMap<>();
+        contextAnswers.put("getBundleContext", bundleContext);
+        return stub(ComponentContext.class, contextAnswers);
+    }
+
+    /**
+     * Creates a request for a resource, with the given request parameters and headers. The
+     * attributes are kept in given map, so the benchmarks can clear them between invocations.
+     */
+    public static SlingHttpServletRequest request(String resourcePath, String resourceType, String selectorString,
+            Map<String, String[]> parameters, Map<String, String> headers, Map<String, Object> attributes) {
+        final Map<String, Object> resourceAnswers = new HashMap<>();
+        resourceAnswers.put("getPath", resourcePath);
+        resourceAnswers.put("getResourceType", resourceType);
+        final Resource resource = stub(Resource.class, resourceAnswers);
+
+        final Map<String, Object> pathInfoAnswers = new HashMap<>();
+        pathInfoAnswers.put("getResourcePath", resourcePath);
+        pathInfoAnswers.put("getExtension", "html");
+        if (selectorString != null) {
+            pathInfoAnswers.put("getSelectorString", selectorString);
+        }
+        pathInfoAnswers.put("getSelectors", selectorString == null ? new String[0] : selectorString.split("\\."));
+        final RequestPathInfo pathInfo = stub(RequestPathInfo.class, pathInfoAnswers);
+
+        final Map<String, Object> resolverAnswers = new HashMap<>();
+        resolverAnswers.put("map", (Answer) args -> args[args.length - 1]);
+        final ResourceResolver resolver = stub(ResourceResolver.class, resolverAnswers);
+
+        final Map<String, Object> requestAnswers = new HashMap<>();
+        requestAnswers.put("getResource", resource);
+        requestAnswers.put("getRequestPathInfo", pathInfo);
+        requestAnswers.put("getResourceResolver", resolver);
+        requestAnswers.put("getParameterMap", parameters);
+        requestAnswers.put("getMethod", "GET");
+        requestAnswers.put("getScheme", "https");
+        requestAnswers.put("getServerName", "www.example.com");
+        requestAnswers.put("getServerPort", 443);
+        requestAnswers.put("getContextPath", "");
+        requestAnswers.put("getHeader", (Answer) args -> headers.get(args[0]));
+        requestAnswers.put("getAttribute", (Answer) args -> attributes.get(args[0]));
+        requestAnswers.put("setAttribute", (Answer) args -> attributes.put((String) args[0], args[1]));
+        requestAnswers.put("removeAttribute", (Answer) args -> attributes.remove(args[0]));
+        return stub(SlingHttpServletRequest.class, requestAnswers);
+    }
+
+    /**
+     * Creates a response discarding everything written to it.
+     */
+    public static SlingHttpServletResponse response() {
+        final Map<String, Object> answers = new HashMap<>();
+        answers.put("getWriter", new PrintWriter(Writer.nullWriter()));
+        answers.put("getCharacterEncoding", "UTF-8");
+        return stub(SlingHttpServletResponse.class, answers);
+    }
+
+    /**
+     * Builds a resource path of given depth below {@code /content}, ending with a component
+     * below {@code jcr:content}.
+     */
+    public static String resourcePath(int depth, String component) {
+        final StringBuilder path = new StringBuilder("/content");
+        for (int i = 1; i < depth; i++) {
+            path.append("/level").append(i);
+        }
+        return path.append("/jcr:content/par/").append(component).toString();
+    }
+}
@@ -0,0 +1,114 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ConfigurationWhiteboard#getConfiguration} for a component listed by the last
+ * configuration and for a component no configuration lists. The resource types are spread over
+ * the configurations and the request attributes are cleared before every lookup, so each
+ * invocation is the first lookup of a request. With {@code patterns} set, every configuration also
+ * lists a resource type pattern, so the lookups go through the pattern candidates kept by the
+ * index, e.g. {@code -prof gc} shows whether the fast path stays allocation free.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigurationWhiteboardBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int configCount;
+
+    @Param({ "10", "1000" })
+    public int resourceTypeCount;
+
+    @Param({ "3", "10" })
+    public int pathDepth;
+
+    @Param({ "false", "true" })
+    public boolean patterns;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    private ConfigurationWhiteboard whiteboard;
+
+    private SlingHttpServletRequest configuredRequest;
+
+    private SlingHttpServletRequest unconfiguredRequest;
+
+    private String configuredType;
+
+    @Setup
+    public void setUp() {
+        whiteboard = new ConfigurationWhiteboard();
+        final int typesPerConfig = Math.max(1, resourceTypeCount / configCount);
+        for (int i = 0; i < configCount; i++) {
+            final String[] resourceTypes = new String[typesPerConfig + (patterns ? 1 : 0)];
+            for (int j = 0; j < typesPerConfig; j++) {
+                resourceTypes[j] = "app/components/c" + i + "_" + j;
+            }
+            if (patterns) {
+                resourceTypes[typesPerConfig] = "app/components/p" + i + "/**";
+            }
+            final Map<String, Object> properties = new HashMap<>();
+            properties.put("include-filter.config.enabled", true);
+            properties.put("include-filter.config.path", i % 2 == 0 ? "/content" : "^/content/.*");
+            properties.put("include-filter.config.resource-types", resourceTypes);
+            whiteboard.bindConfigs(BenchmarkSupport.configuration(properties), Collections.<String, Object>emptyMap());
+        }
+        configuredType = "app/components/c" + (configCount - 1) + "_" + (typesPerConfig - 1);
+        configuredRequest = BenchmarkSupport.request(BenchmarkSupport.resourcePath(pathDepth, "configured"),
+                configuredType, null, Collections.<String, String[]>emptyMap(), Collections.<String, String>emptyMap(), attributes);
+        unconfiguredRequest = BenchmarkSupport.request(BenchmarkSupport.resourcePath(pathDepth, "text"),
+                "app/components/text", null, Collections.<String, String[]>emptyMap(), Collections.<String, String>emptyMap(), attributes);
+    }
+
+    @Benchmark
+    public Configuration configuredType() {
+        attributes.clear();
+        return whiteboard.getConfiguration(configuredRequest, configuredType);
+    }
+
+    @Benchmark
+    public Configuration unconfiguredType() {
+        attributes.clear();
+        return whiteboard.getConfiguration(unconfiguredRequest, "app/components/text");
+    }
+}
@@ -0,0 +1,146 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.dynamicinclude.api.IncludeGenerator;
+import org.apache.sling.dynamicinclude.generator.IncludeGeneratorWhiteboard;
+import org.apache.sling.dynamicinclude.generator.types.EsiGenerator;
+import org.apache.sling.dynamicinclude.generator.types.JsiGenerator;
+import org.apache.sling.dynamicinclude.generator.types.SsiGenerator;
+import org.apache.sling.dynamicinclude.impl.IncludeUrlCache;
+import org.apache.sling.dynamicinclude.impl.MappingCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link IncludeTagFilter#doFilter} for a component replaced with an include and for a
+ * component passed down the filter chain. The request attributes are cleared before every
+ * invocation, while the url and mapping caches are kept, as on a running instance.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IncludeTagFilterBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int configCount;
+
+    @Param({ "3", "10" })
+    public int pathDepth;
+
+    @Param({ "SSI", "ESI", "JSI" })
+    public String includeType;
+
+    @Param({ "false", "true" })
+    public boolean rewrite;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    private final FilterChain chain = (request, response) -> { };
+
+    private IncludeTagFilter filter;
+
+    private SlingHttpServletRequest configuredRequest;
+
+    private SlingHttpServletRequest unconfiguredRequest;
+
+    private SlingHttpServletResponse response;
+
+    @Setup
+    public void setUp() {
+        final ConfigurationWhiteboard configurationWhiteboard = new ConfigurationWhiteboard();
+        for (int i = 0; i < configCount; i++) {
+            final Map<String, Object> properties = new HashMap<>();
+            properties.put("include-filter.config.enabled", true);
+            properties.put("include-filter.config.path", "/content");
+            properties.put("include-filter.config.resource-types", new String[] { "app/components/dynamic" + i });
+            properties.put("include-filter.config.include-type", includeType);
+            properties.put("include-filter.config.required_header", "");
+            properties.put("include-filter.config.rewrite", rewrite);
+            properties.put("include-filter.config.add_comment", true);
+            configurationWhiteboard.bindConfigs(BenchmarkSupport.configuration(properties), Collections.<String, Object>emptyMap());
+        }
+
+        final JsiGenerator jsiGenerator = new JsiGenerator();
+        jsiGenerator.activate(BenchmarkSupport.componentContext());
+        final Set<IncludeGenerator> generators = new HashSet<>();
+        generators.add(new SsiGenerator());
+        generators.add(new EsiGenerator());
+        generators.add(jsiGenerator);
+        final IncludeGeneratorWhiteboard generatorWhiteboard = new IncludeGeneratorWhiteboard();
+        BenchmarkSupport.inject(generatorWhiteboard, "generators", generators);
+
+        final IncludeUrlCache includeUrlCache = new IncludeUrlCache();
+        includeUrlCache.activate(BenchmarkSupport.componentProperties(IncludeUrlCache.Config.class, Collections.<String, Object>emptyMap()));
+        final MappingCache mappingCache = new MappingCache();
+        mappingCache.activate(BenchmarkSupport.componentProperties(MappingCache.Config.class, Collections.<String, Object>emptyMap()));
+
+        filter = new IncludeTagFilter();
+        BenchmarkSupport.inject(filter, "configurationWhiteboard", configurationWhiteboard);
+        BenchmarkSupport.inject(filter, "generatorWhiteboard", generatorWhiteboard);
+        BenchmarkSupport.inject(filter, "includeUrlCache", includeUrlCache);
+        BenchmarkSupport.inject(filter, "mappingCache", mappingCache);
+
+        configuredRequest = BenchmarkSupport.request(BenchmarkSupport.resourcePath(pathDepth, "dynamic"),
+                "app/components/dynamic" + (configCount - 1), null, Collections.<String, String[]>emptyMap(),
+                Collections.<String, String>emptyMap(), attributes);
+        unconfiguredRequest = BenchmarkSupport.request(BenchmarkSupport.resourcePath(pathDepth, "text"),
+                "app/components/text", null, Collections.<String, String[]>emptyMap(),
+                Collections.<String, String>emptyMap(), attributes);
+        response = BenchmarkSupport.response();
+    }
+
+    @Benchmark
+    public void configuredComponent() throws IOException, ServletException {
+        attributes.clear();
+        filter.doFilter(configuredRequest, response, chain);
+    }
+
+    @Benchmark
+    public void unconfiguredComponent() throws IOException, ServletException {
+        attributes.clear();
+        filter.doFilter(unconfiguredRequest, response, chain);
+    }
+}
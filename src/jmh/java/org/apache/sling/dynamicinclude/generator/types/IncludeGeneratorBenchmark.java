@@ -0,0 +1,90 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.generator.types;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.dynamicinclude.BenchmarkSupport;
+import org.apache.sling.dynamicinclude.api.IncludeGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the built-in include generators, building the include as a string and writing it to
+ * the response writer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IncludeGeneratorBenchmark {
+
+    private static final String URL = "/content/site/en/home/_jcr_content/par/teaser.nocache.html";
+
+    @Param({ "SSI", "ESI", "JSI" })
+    public String type;
+
+    private final Writer writer = Writer.nullWriter();
+
+    private IncludeGenerator generator;
+
+    private SlingHttpServletRequest request;
+
+    @Setup
+    public void setUp() {
+        if ("SSI".equals(type)) {
+            generator = new SsiGenerator();
+        } else if ("ESI".equals(type)) {
+            generator = new EsiGenerator();
+        } else {
+            final JsiGenerator jsiGenerator = new JsiGenerator();
+            jsiGenerator.activate(BenchmarkSupport.componentContext());
+            generator = jsiGenerator;
+        }
+        request = BenchmarkSupport.request("/content/site/en/home", "app/components/page", null,
+                Collections.<String, String[]>emptyMap(), Collections.<String, String>emptyMap(), new HashMap<String, Object>());
+    }
+
+    @Benchmark
+    public String getInclude() {
+        return generator.getInclude(request, URL);
+    }
+
+    @Benchmark
+    public void writeInclude() throws IOException {
+        generator.writeInclude(request, URL, writer);
+    }
+}
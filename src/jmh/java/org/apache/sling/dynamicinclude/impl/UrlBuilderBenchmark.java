@@ -0,0 +1,85 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.dynamicinclude.BenchmarkSupport;
+import org.apache.sling.dynamicinclude.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building the include url, alone and together with the encoding, for plain ASCII paths
+ * and for paths which have to be percent-encoded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UrlBuilderBenchmark {
+
+    @Param({ "3", "10" })
+    public int pathDepth;
+
+    @Param({ "true", "false" })
+    public boolean asciiPath;
+
+    private Configuration config;
+
+    private RequestPathInfo pathInfo;
+
+    @Setup
+    public void setUp() {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("include-filter.config.enabled", true);
+        config = BenchmarkSupport.configuration(properties);
+        final String path = BenchmarkSupport.resourcePath(pathDepth, asciiPath ? "teaser" : "teaser \u00E4");
+        pathInfo = BenchmarkSupport.request(path, "app/components/teaser", "foo",
+                Collections.<String, String[]>emptyMap(), Collections.<String, String>emptyMap(),
+                new HashMap<String, Object>()).getRequestPathInfo();
+    }
+
+    @Benchmark
+    public String buildUrl() {
+        return UrlBuilder.buildUrl("nocache", "app/components/teaser", false, config, pathInfo);
+    }
+
+    @Benchmark
+    public String buildIncludeUrl() throws URISyntaxException {
+        return UrlBuilder.buildIncludeUrl("nocache", "app/components/teaser", false, config, pathInfo);
+    }
+}
@@ -0,0 +1,86 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.pathmatcher;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares evaluating every {@link RegexPathMatcher} in turn with a single
+ * {@link MultiRegexPathMatcher}, for a path matching one of the patterns and for a path
+ * matching none of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegexPathMatcherBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int patternCount;
+
+    @Param({ "/content/brand7/en/home/products/page", "/content/other/en/home/products/page" })
+    public String path;
+
+    private RegexPathMatcher[] matchers;
+
+    private MultiRegexPathMatcher multiMatcher;
+
+    @Setup
+    public void setUp() {
+        matchers = new RegexPathMatcher[patternCount];
+        final Pattern[] patterns = new Pattern[patternCount];
+        for (int i = 0; i < patternCount; i++) {
+            matchers[i] = new RegexPathMatcher("^/content/brand" + i + "/(en|de|fr)/.*");
+            patterns[i] = matchers[i].getPattern();
+        }
+        multiMatcher = new MultiRegexPathMatcher(patterns);
+    }
+
+    @Benchmark
+    public BitSet perConfiguration() {
+        final BitSet result = new BitSet();
+        for (int i = 0; i < matchers.length; i++) {
+            if (matchers[i].match(path)) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public BitSet combined() {
+        return multiMatcher.match(path);
+    }
+}
@@ -0,0 +1,87 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.dynamicinclude.BenchmarkSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the ignore URL params check for requests whose parameters are all ignored, which is
+ * the worst case, as every parameter has to be checked. The patterns are either compiled for every
+ * request or once in a {@link IgnoreUrlParamsClassifier}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestHelperUtilBenchmark {
+
+    private static final Collection<String> IGNORE_URL_PARAMS = Arrays.asList("utm_.*", "gclid", "fbclid", "_ga", "mc_.*");
+
+    @Param({ "0", "5", "20" })
+    public int parameterCount;
+
+    private SlingHttpServletRequest request;
+
+    private IgnoreUrlParamsClassifier classifier;
+
+    @Setup
+    public void setUp() {
+        final Map<String, String[]> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < parameterCount; i++) {
+            parameters.put("utm_param" + i, new String[] { "value" });
+        }
+        request = BenchmarkSupport.request("/content/page", "app/components/page", null, parameters,
+                Collections.<String, String>emptyMap(), new HashMap<String, Object>());
+        classifier = new IgnoreUrlParamsClassifier(IGNORE_URL_PARAMS);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public boolean patterns() {
+        return RequestHelperUtil.requestHasNonIgnoredParameters(IGNORE_URL_PARAMS, request);
+    }
+
+    @Benchmark
+    public boolean classifier() {
+        return RequestHelperUtil.requestHasNonIgnoredParameters(classifier, request);
+    }
+}
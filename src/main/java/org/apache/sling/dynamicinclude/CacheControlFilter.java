@@ -30,6 +30,7 @@ import javax.servlet.ServletResponse;
 
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.dynamicinclude.impl.TopLevelResponse;
 import org.apache.sling.servlets.annotations.SlingServletFilter;
 import org.apache.sling.servlets.annotations.SlingServletFilterScope;
 import org.osgi.framework.Constants;
@@ -61,10 +62,19 @@ public class CacheControlFilter implements Filter {
         final String resourceType = slingRequest.getResource().getResourceType();
         final Configuration config = configurationWhiteboard.getConfiguration(slingRequest, resourceType);
 
-        if (config != null && config.hasTtlSet()) {
+        // the variant of the ESI alt urls is kept by the edge for its own TTL
+        final int edgeTtl = config == null ? -1
+                : config.hasAltEdgeTtlSet() && config.hasAltSelector(slingRequest) ? config.getAltEdgeTtl() : config.getEdgeTtl();
+        if (config != null && (config.hasTtlSet() || edgeTtl >= 0)) {
             SlingHttpServletResponse slingResponse = (SlingHttpServletResponse) response;
-            slingResponse.setHeader(HEADER_CACHE_CONTROL, "max-age=" + config.getTtl());
-            LOG.debug("set \"{}: max-age={}\" to {}", HEADER_CACHE_CONTROL, config.getTtl(), resourceType);
+            if (config.hasTtlSet()) {
+                slingResponse.setHeader(HEADER_CACHE_CONTROL, "max-age=" + config.getTtl());
+                LOG.debug("set \"{}: max-age={}\" to {}", HEADER_CACHE_CONTROL, config.getTtl(), resourceType);
+            }
+            if (edgeTtl >= 0) {
+                slingResponse.setHeader(TopLevelResponse.SURROGATE_CONTROL, "max-age=" + edgeTtl);
+                LOG.debug("set \"{}: max-age={}\" to {}", TopLevelResponse.SURROGATE_CONTROL, edgeTtl, resourceType);
+            }
             if (!slingResponse.containsHeader(HEADER_DATE)) {
                 slingResponse.setDateHeader(HEADER_DATE, System.currentTimeMillis());
             }
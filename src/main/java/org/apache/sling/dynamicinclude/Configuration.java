@@ -19,10 +19,16 @@
 
 package org.apache.sling.dynamicinclude;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -31,6 +37,8 @@ import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.dynamicinclude.pathmatcher.PathMatcher;
 import org.apache.sling.dynamicinclude.pathmatcher.PrefixPathMatcher;
 import org.apache.sling.dynamicinclude.pathmatcher.RegexPathMatcher;
+import org.apache.sling.dynamicinclude.resourcetype.ResourceTypeTrie;
+import org.apache.sling.dynamicinclude.util.IgnoreUrlParamsClassifier;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -64,12 +72,21 @@ public class Configuration {
       String include$_$filter_config_path() default "/content";
       
       @AttributeDefinition(name = "Resource types",
-          description = "Filter will replace components with selected resource types",
+          description = "Filter will replace components with selected resource types. A \"*\" segment matches any single segment and a \"**\" segment any number of segments, e.g. \"myapp/components/dynamic/*\"",
           type = AttributeType.STRING)
       String[] include$_$filter_config_resource$_$types() default {};
       
-      @AttributeDefinition(name = "Include type", description = "Type of generated include tags. The Built-in option are 'SSI','ESI' and 'JSI'. Must match one of the IncludeGenerator service's type")
+      @AttributeDefinition(name = "Match resource super types",
+          description = "Check to also replace components whose sling:resourceSuperType chain contains one of the selected resource types")
+      boolean include$_$filter_config_matchSuperTypes() default false;
+
+      @AttributeDefinition(name = "Include type", description = "Type of generated include tags. The Built-in option are 'SSI','NGINX-SSI','ESI','JSI','JSI-BATCH' and 'INLINE'. Must match one of the IncludeGenerator service's type")
       String include$_$filter_config_include$_$type() default "SSI";
+
+      @AttributeDefinition(name = "Include type negotiation",
+          description = "Ordered include types to choose from per request, as TYPE;Header=value entries, e.g. \"ESI;Surrogate-Capability=ESI/1.0\". The first type whose header contains the value (or is present, if no value is given) is used, falling back to the include type",
+          type = AttributeType.STRING)
+      String[] include$_$filter_config_include$_$type_negotiation() default {};
       
       @AttributeDefinition(name="Add comment", description = "Add comment to included components")
       boolean include$_$filter_config_add__comment() default false;
@@ -83,6 +100,9 @@ public class Configuration {
       @AttributeDefinition(name = "Component TTL", description = "\"Time to live\" cache header for rendered component (in seconds)")
       String include$_$filter_config_ttl() default "";
 
+      @AttributeDefinition(name = "Edge TTL", description = "\"Time to live\" of the rendered component in edge caches (in seconds), sent with the Surrogate-Control header")
+      String include$_$filter_config_edge$_$ttl() default "";
+
       @AttributeDefinition(name = "Required header", description = "SDI will work only for requests with given header")
       String include$_$filter_config_required__header() default "Server-Agent=Communique-Dispatcher";
 
@@ -99,38 +119,125 @@ public class Configuration {
 
       @AttributeDefinition(name =  "Disable ignore URL params check", description = "Disable the check in the Ignore URL Params setting.")
       boolean include$_$filter_config_disableIgnoreUrlParams() default false;
+
+      @AttributeDefinition(name = "Surrogate-Control header",
+          description = "Surrogate-Control directive added to the pages containing ESI includes, so edge caches only process these. Leave empty to disable")
+      String include$_$filter_config_esi_surrogate$_$control() default "content=\"ESI/1.0\"";
+
+      @AttributeDefinition(name = "ESI alt edge TTL",
+          description = "\"Time to live\" in edge caches (in seconds) of the component variant addressed by the ESI alt urls of the alt-selector generator option, "
+              + "usually longer than the edge TTL so the edge still has it once the component fails")
+      String include$_$filter_config_esi_alt$_$edge$_$ttl() default "";
+
+      @AttributeDefinition(name = "Generator options",
+          description = "Options passed to the include generator, as name=value entries, e.g. \"lazy=true\" for the JSI generator",
+          type = AttributeType.STRING)
+      String[] include$_$filter_config_generator$_$options() default {};
+
+      @AttributeDefinition(name = "Fragment cache",
+          description = "Check to keep the rendered components in memory for the component TTL, see the Fragment Cache configuration for its size")
+      boolean include$_$filter_config_fragment$_$cache() default false;
+
+      @AttributeDefinition(name = "Fragment cache vary",
+          description = "Request headers the rendered components depend on, each value is cached separately, e.g. \"Accept-Language\"",
+          type = AttributeType.STRING)
+      String[] include$_$filter_config_fragment$_$cache_vary() default {};
+
+      @AttributeDefinition(name = "Fragment cache stale-while-revalidate",
+          description = "Time the cached components are still served once expired, while a single request renders them again (in seconds)")
+      int include$_$filter_config_fragment$_$cache_stale$_$while$_$revalidate() default 0;
+
+      @AttributeDefinition(name = "Request collapsing",
+          description = "Check to render concurrent identical requests for a component once, the other requests wait for the first one and get a copy of its response")
+      boolean include$_$filter_config_request$_$collapsing() default false;
+
+      @AttributeDefinition(name = "Request collapsing timeout",
+          description = "Time the concurrent requests wait for the first one, before rendering the component on their own (in milliseconds)")
+      long include$_$filter_config_request$_$collapsing_timeout() default 1000;
   }
 
+  /**
+   * Generator option holding the component TTL, unless it's set explicitly.
+   */
+  public static final String TTL_OPTION = "ttl";
+
+  /**
+   * Generator option holding the filter selector.
+   */
+  public static final String SELECTOR_OPTION = "selector";
+
+  /**
+   * Generator option holding the selector of the ESI alt urls, added after the filter selector.
+   */
+  public static final String ALT_SELECTOR_OPTION = "alt-selector";
+
   private static final Logger LOG = LoggerFactory.getLogger(Configuration.class);
 
-  private PathMatcher pathMatcher;
+  private final PathMatcher pathMatcher;
+
+  private final boolean isEnabled;
+
+  private final String includeSelector;
+
+  private final String extension;
+
+  private final int ttl;
+
+  private final int edgeTtl;
+
+  private final String altSelector;
+
+  private final int altEdgeTtl;
 
-  private boolean isEnabled;
+  private final List<String> resourceTypes;
 
-  private String includeSelector;
+  private final Set<String> exactResourceTypes;
 
-  private String extension;
+  private final ResourceTypeTrie resourceTypePatterns;
 
-  private int ttl;
+  private final boolean matchSuperTypes;
 
-  private List<String> resourceTypes;
+  private final boolean addComment;
 
-  private boolean addComment;
+  private final String includeTypeName;
 
-  private String includeTypeName;
+  private final List<IncludeTypeCandidate> includeTypeCandidates;
 
-  private String requiredHeader;
+  private final List<String> negotiationHeaders;
 
-  private boolean disableIgnoreUrlParams;
+  private final String requiredHeader;
 
-  private Collection<String> ignoreUrlParams;
+  private final boolean disableIgnoreUrlParams;
 
-  private boolean rewritePath;
+  private final Collection<String> ignoreUrlParams;
 
-  private boolean appendSuffix;
+  private final IgnoreUrlParamsClassifier ignoreUrlParamsClassifier;
 
+  private final boolean rewritePath;
+
+  private final boolean appendSuffix;
+
+  private final String surrogateControl;
+
+  private final Map<String, String> generatorOptions;
+
+  private final boolean fragmentCache;
+
+  private final List<String> fragmentCacheVary;
+
+  private final int staleWhileRevalidate;
+
+  private final boolean requestCollapsing;
+
+  private final long requestCollapsingTimeout;
+
+  /**
+   * Creates the configuration from the component properties. The configuration can't be
+   * modified, a changed OSGi configuration creates a new instance.
+   * @param cfg the component properties
+   */
   @Activate
-  public void activate(Config cfg) {
+  public Configuration(Config cfg) {
     isEnabled = cfg.include$_$filter_config_enabled();
     String pathPattern = cfg.include$_$filter_config_path();
     pathMatcher = choosePathMatcher(pathPattern);
@@ -141,23 +248,103 @@ public class Configuration {
       String name = s[0].trim();
       resourceTypeList[i] = name;
     }
-    this.resourceTypes = Arrays.asList(resourceTypeList);
+    this.resourceTypes = Collections.unmodifiableList(Arrays.asList(resourceTypeList));
+    final Set<String> exact = new HashSet<>();
+    final String[] patterns = new String[resourceTypeList.length];
+    for (int i = 0; i < resourceTypeList.length; i++) {
+      if (ResourceTypeTrie.isPattern(resourceTypeList[i])) {
+        patterns[i] = resourceTypeList[i];
+      } else {
+        exact.add(resourceTypeList[i]);
+      }
+    }
+    this.exactResourceTypes = exact;
+    this.resourceTypePatterns = new ResourceTypeTrie(patterns);
 
+    matchSuperTypes = cfg.include$_$filter_config_matchSuperTypes();
     includeSelector = cfg.include$_$filter_config_selector();
     extension = cfg.include$_$filter_config_extension();
     ttl = PropertiesUtil.toInteger(cfg.include$_$filter_config_ttl(), -1);
+    edgeTtl = PropertiesUtil.toInteger(cfg.include$_$filter_config_edge$_$ttl(), -1);
     addComment = cfg.include$_$filter_config_add__comment();
     includeTypeName = cfg.include$_$filter_config_include$_$type();
+    includeTypeCandidates = parseIncludeTypeCandidates(PropertiesUtil.toStringArray(cfg.include$_$filter_config_include$_$type_negotiation(), new String[0]));
+    final Set<String> headers = new LinkedHashSet<>();
+    for (IncludeTypeCandidate candidate : includeTypeCandidates) {
+      if (candidate.header != null) {
+        headers.add(candidate.header);
+      }
+    }
+    negotiationHeaders = Collections.unmodifiableList(new ArrayList<>(headers));
     requiredHeader = cfg.include$_$filter_config_required__header();
     ignoreUrlParams = new HashSet<>(
             Arrays.asList(PropertiesUtil.toStringArray(cfg.include$_$filter_config_ignoreUrlParams(), new String[0]))
     );
+    ignoreUrlParamsClassifier = new IgnoreUrlParamsClassifier(ignoreUrlParams);
     rewritePath = cfg.include$_$filter_config_rewrite();
     appendSuffix = cfg.include$_$filter_config_appendSuffix();
     disableIgnoreUrlParams = cfg.include$_$filter_config_disableIgnoreUrlParams();
+    surrogateControl = StringUtils.trimToNull(cfg.include$_$filter_config_esi_surrogate$_$control());
+    generatorOptions = parseOptions(PropertiesUtil.toStringArray(cfg.include$_$filter_config_generator$_$options(), new String[0]),
+        ttl, includeSelector);
+    altSelector = StringUtils.trimToNull(generatorOptions.get(ALT_SELECTOR_OPTION));
+    altEdgeTtl = PropertiesUtil.toInteger(cfg.include$_$filter_config_esi_alt$_$edge$_$ttl(), -1);
+    fragmentCache = cfg.include$_$filter_config_fragment$_$cache();
+    final List<String> vary = new ArrayList<>();
+    for (String header : PropertiesUtil.toStringArray(cfg.include$_$filter_config_fragment$_$cache_vary(), new String[0])) {
+      if (StringUtils.isNotBlank(header)) {
+        vary.add(header.trim());
+      }
+    }
+    fragmentCacheVary = Collections.unmodifiableList(vary);
+    staleWhileRevalidate = Math.max(0, cfg.include$_$filter_config_fragment$_$cache_stale$_$while$_$revalidate());
+    requestCollapsing = cfg.include$_$filter_config_request$_$collapsing();
+    requestCollapsingTimeout = Math.max(0, cfg.include$_$filter_config_request$_$collapsing_timeout());
+  }
+
+  private static Map<String, String> parseOptions(String[] entries, int ttl, String includeSelector) {
+    final Map<String, String> options = new LinkedHashMap<>();
+    for (String entry : entries) {
+      if (StringUtils.isBlank(entry)) {
+        continue;
+      }
+      final int separator = entry.indexOf('=');
+      if (separator < 0) {
+        options.put(entry.trim(), "");
+      } else {
+        options.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+      }
+    }
+    if (ttl >= 0 && !options.containsKey(TTL_OPTION)) {
+      options.put(TTL_OPTION, Integer.toString(ttl));
+    }
+    if (StringUtils.isNotEmpty(includeSelector)) {
+      options.put(SELECTOR_OPTION, includeSelector);
+    }
+    return Collections.unmodifiableMap(options);
   }
 
-  private PathMatcher choosePathMatcher(String pathPattern) {
+  private static List<IncludeTypeCandidate> parseIncludeTypeCandidates(String[] entries) {
+    final List<IncludeTypeCandidate> candidates = new ArrayList<>();
+    for (String entry : entries) {
+      if (StringUtils.isBlank(entry)) {
+        continue;
+      }
+      final String[] s = entry.split(";", 2);
+      final String type = s[0].trim();
+      String header = null;
+      String value = null;
+      if (s.length > 1 && StringUtils.isNotBlank(s[1])) {
+        final int separator = s[1].indexOf('=');
+        header = (separator < 0 ? s[1] : s[1].substring(0, separator)).trim();
+        value = separator < 0 ? null : StringUtils.trimToNull(s[1].substring(separator + 1));
+      }
+      candidates.add(new IncludeTypeCandidate(type, header, value));
+    }
+    return Collections.unmodifiableList(candidates);
+  }
+
+  private static PathMatcher choosePathMatcher(String pathPattern) {
     PathMatcher result;
     if (pathPattern.startsWith("^")) {
       LOG.debug("Configured path value: {} is a regexp - will use a RegexPathMatcher.", pathPattern);
@@ -202,8 +389,41 @@ public class Configuration {
     return ttl;
   }
 
+  public boolean hasEdgeTtlSet() {
+    return edgeTtl >= 0;
+  }
+
+  public int getEdgeTtl() {
+    return edgeTtl;
+  }
+
+  /**
+   * @return true if the request addresses the variant of the ESI alt urls, with the selector of
+   *         the {@value #ALT_SELECTOR_OPTION} generator option
+   */
+  public boolean hasAltSelector(SlingHttpServletRequest request) {
+    return altSelector != null && ArrayUtils.contains(request.getRequestPathInfo().getSelectors(), altSelector);
+  }
+
+  public boolean hasAltEdgeTtlSet() {
+    return altEdgeTtl >= 0;
+  }
+
+  public int getAltEdgeTtl() {
+    return altEdgeTtl;
+  }
+
   public boolean isSupportedResourceType(String resourceType) {
-    return StringUtils.isNotBlank(resourceType) && resourceTypes.contains(resourceType);
+    return StringUtils.isNotBlank(resourceType)
+        && (exactResourceTypes.contains(resourceType) || !resourceTypePatterns.match(resourceType).isEmpty());
+  }
+
+  public List<String> getResourceTypes() {
+    return resourceTypes;
+  }
+
+  public boolean isMatchSuperTypes() {
+    return matchSuperTypes;
   }
 
   public boolean getAddComment() {
@@ -214,6 +434,42 @@ public class Configuration {
     return includeTypeName;
   }
 
+  /**
+   * Chooses the include type for given request, from the include type negotiation entries.
+   * @param request the request
+   * @return the first include type whose header matches the request or the default include type
+   */
+  public String getIncludeTypeName(SlingHttpServletRequest request) {
+    for (IncludeTypeCandidate candidate : includeTypeCandidates) {
+      if (candidate.matches(request)) {
+        return candidate.type;
+      }
+    }
+    return includeTypeName;
+  }
+
+  /**
+   * @return true if given include type is the include type or one of the negotiated ones
+   */
+  public boolean usesIncludeType(String type) {
+    if (type.equals(includeTypeName)) {
+      return true;
+    }
+    for (IncludeTypeCandidate candidate : includeTypeCandidates) {
+      if (type.equals(candidate.type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the headers the include type negotiation depends on
+   */
+  public List<String> getNegotiationHeaders() {
+    return negotiationHeaders;
+  }
+
   public boolean isEnabled() {
     return isEnabled;
   }
@@ -226,6 +482,10 @@ public class Configuration {
     return ignoreUrlParams;
   }
 
+  public IgnoreUrlParamsClassifier getIgnoreUrlParamsClassifier() {
+    return ignoreUrlParamsClassifier;
+  }
+
   public boolean isDisableIgnoreUrlParams() {
     return disableIgnoreUrlParams;
   }
@@ -237,4 +497,75 @@ public class Configuration {
   public boolean isAppendSuffix() {
       return appendSuffix;
   }
+
+  /**
+   * @return the Surrogate-Control directive of the pages containing ESI includes, or {@code null}
+   */
+  public String getSurrogateControl() {
+    return surrogateControl;
+  }
+
+  /**
+   * @return the options of the include generator, by name, including the {@value #SELECTOR_OPTION}
+   *         option and the {@value #TTL_OPTION} option if the component TTL is set
+   */
+  public Map<String, String> getGeneratorOptions() {
+    return generatorOptions;
+  }
+
+  /**
+   * @return true if the rendered components should be kept in the fragment cache, which requires
+   *         a positive component TTL
+   */
+  public boolean isFragmentCacheEnabled() {
+    return fragmentCache && ttl > 0;
+  }
+
+  /**
+   * @return the request headers the cached or collapsed components depend on
+   */
+  public List<String> getFragmentCacheVary() {
+    return fragmentCacheVary;
+  }
+
+  /**
+   * @return time the cached components are served once expired, in seconds
+   */
+  public int getStaleWhileRevalidate() {
+    return staleWhileRevalidate;
+  }
+
+  public boolean isRequestCollapsing() {
+    return requestCollapsing;
+  }
+
+  /**
+   * @return time the concurrent requests wait for the first one, in milliseconds
+   */
+  public long getRequestCollapsingTimeout() {
+    return requestCollapsingTimeout;
+  }
+
+  private static final class IncludeTypeCandidate {
+
+    private final String type;
+
+    private final String header;
+
+    private final String value;
+
+    private IncludeTypeCandidate(String type, String header, String value) {
+      this.type = type;
+      this.header = header;
+      this.value = value;
+    }
+
+    private boolean matches(SlingHttpServletRequest request) {
+      if (header == null) {
+        return true;
+      }
+      final String actual = request.getHeader(header);
+      return actual != null && (value == null || StringUtils.containsIgnoreCase(actual, value));
+    }
+  }
 }
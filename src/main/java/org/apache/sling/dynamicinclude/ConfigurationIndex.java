@@ -0,0 +1,265 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.dynamicinclude.pathmatcher.MultiRegexPathMatcher;
+import org.apache.sling.dynamicinclude.pathmatcher.PathMatcher;
+import org.apache.sling.dynamicinclude.pathmatcher.PrefixPathMatcher;
+import org.apache.sling.dynamicinclude.pathmatcher.PrefixPathTrie;
+import org.apache.sling.dynamicinclude.pathmatcher.RegexPathMatcher;
+import org.apache.sling.dynamicinclude.resourcetype.ResourceTypeTrie;
+
+/**
+ * Immutable lookup structure over the enabled configurations. Configurations are kept in a single
+ * array, in the order of precedence, and referenced by their position in it, so the first matching
+ * candidate is the one to use. The resource type index maps each resource type
+ * to the ascending positions of its candidate configurations, resource type patterns are compiled
+ * into a {@link ResourceTypeTrie}, all prefix based paths are
+ * compiled into a {@link PrefixPathTrie} and all regular expression based paths into a
+ * {@link MultiRegexPathMatcher}, both reporting the positions of the matching configurations.
+ * The candidates found through resource type patterns are kept per resource type, so a lookup
+ * doesn't allocate once the resource type has been seen. A new instance is built whenever the set
+ * of bound configurations changes.
+ */
+final class ConfigurationIndex {
+
+    static final ConfigurationIndex EMPTY = new ConfigurationIndex(Collections.<Configuration>emptyList());
+
+    // maximum number of resource types whose pattern candidates are kept, the map is cleared once full
+    private static final int PATTERN_CANDIDATES_SIZE = 1024;
+
+    // marks the resource types without candidates, as the map can't hold nulls
+    private static final int[] NO_CANDIDATES = new int[0];
+
+    private final Configuration[] configs;
+
+    private final Map<String, int[]> byResourceType;
+
+    private final ResourceTypeTrie resourceTypePatterns;
+
+    // position of the configuration of each resource type pattern
+    private final int[] typePatternConfigs;
+
+    private final Map<String, int[]> patternCandidates = new ConcurrentHashMap<>();
+
+    // whether any configuration uses the include type, decided once per include type
+    private final Map<String, Boolean> includeTypes = new ConcurrentHashMap<>();
+
+    // positions of the configurations matching resource super types
+    private final BitSet superTypeConfigs = new BitSet();
+
+    private final PrefixPathTrie prefixTrie;
+
+    private final MultiRegexPathMatcher regexMatcher;
+
+    ConfigurationIndex(Collection<Configuration> configs) {
+        final List<Configuration> enabled = new ArrayList<>();
+        for (Configuration config : configs) {
+            if (config.isEnabled()) {
+                enabled.add(config);
+            }
+        }
+        this.configs = enabled.toArray(new Configuration[0]);
+
+        final Map<String, List<Integer>> candidates = new LinkedHashMap<>();
+        final List<String> typePatterns = new ArrayList<>();
+        final List<Integer> typePatternConfigs = new ArrayList<>();
+        final String[] prefixes = new String[this.configs.length];
+        final Pattern[] patterns = new Pattern[this.configs.length];
+        for (int i = 0; i < this.configs.length; i++) {
+            final Configuration config = this.configs[i];
+            if (config.isMatchSuperTypes()) {
+                superTypeConfigs.set(i);
+            }
+            for (String resourceType : config.getResourceTypes()) {
+                if (StringUtils.isBlank(resourceType)) {
+                    continue;
+                }
+                if (ResourceTypeTrie.isPattern(resourceType)) {
+                    typePatterns.add(resourceType);
+                    typePatternConfigs.add(i);
+                    continue;
+                }
+                List<Integer> list = candidates.get(resourceType);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    candidates.put(resourceType, list);
+                }
+                if (!list.contains(i)) {
+                    list.add(i);
+                }
+            }
+            if (config.getPathMatcher() instanceof PrefixPathMatcher) {
+                prefixes[i] = ((PrefixPathMatcher) config.getPathMatcher()).getConfigurationValue();
+            } else if (config.getPathMatcher() instanceof RegexPathMatcher) {
+                patterns[i] = ((RegexPathMatcher) config.getPathMatcher()).getPattern();
+            }
+        }
+        final Map<String, int[]> index = new HashMap<>(candidates.size() * 2);
+        for (Map.Entry<String, List<Integer>> e : candidates.entrySet()) {
+            index.put(e.getKey(), toArray(e.getValue()));
+        }
+        this.byResourceType = index;
+        this.resourceTypePatterns = new ResourceTypeTrie(typePatterns.toArray(new String[0]));
+        this.typePatternConfigs = toArray(typePatternConfigs);
+        this.prefixTrie = new PrefixPathTrie(prefixes);
+        this.regexMatcher = new MultiRegexPathMatcher(patterns);
+    }
+
+    /**
+     * Finds the configurations listing given resource type, either directly or through a pattern.
+     * For resource types which are listed directly only, this is a single hash lookup, allowing
+     * the callers to skip the path matching for all the other resource types. With patterns
+     * configured, the result of matching them is kept per resource type, so the lookup doesn't
+     * allocate either once the resource type has been seen.
+     *
+     * @return ascending positions of the candidate configurations or {@code null} if there are none
+     */
+    int[] getCandidates(String resourceType) {
+        if (resourceType == null) {
+            return null;
+        }
+        if (resourceTypePatterns.isEmpty()) {
+            return byResourceType.get(resourceType);
+        }
+        int[] candidates = patternCandidates.get(resourceType);
+        if (candidates == null) {
+            candidates = matchCandidates(resourceType);
+            if (patternCandidates.size() >= PATTERN_CANDIDATES_SIZE) {
+                patternCandidates.clear();
+            }
+            patternCandidates.put(resourceType, candidates == null ? NO_CANDIDATES : candidates);
+        }
+        return candidates == NO_CANDIDATES ? null : candidates;
+    }
+
+    private int[] matchCandidates(String resourceType) {
+        final int[] exact = byResourceType.get(resourceType);
+        final BitSet matches = resourceTypePatterns.match(resourceType);
+        if (matches.isEmpty()) {
+            return exact;
+        }
+        final BitSet candidates = new BitSet();
+        if (exact != null) {
+            for (int i : exact) {
+                candidates.set(i);
+            }
+        }
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            candidates.set(typePatternConfigs[i]);
+        }
+        return candidates.stream().toArray();
+    }
+
+    /**
+     * @return the enabled configurations, in the order of precedence
+     */
+    List<Configuration> getConfigurations() {
+        return Collections.unmodifiableList(Arrays.asList(configs));
+    }
+
+    /**
+     * @return true if any of the configurations uses given include type, as the default one or a
+     *         negotiated one
+     */
+    boolean usesIncludeType(String type) {
+        Boolean uses = includeTypes.get(type);
+        if (uses == null) {
+            uses = Boolean.FALSE;
+            for (Configuration config : configs) {
+                if (config.usesIncludeType(type)) {
+                    uses = Boolean.TRUE;
+                    break;
+                }
+            }
+            includeTypes.put(type, uses);
+        }
+        return uses;
+    }
+
+    /**
+     * @return true if any of the configurations matches resource super types
+     */
+    boolean hasSuperTypeConfigs() {
+        return !superTypeConfigs.isEmpty();
+    }
+
+    /**
+     * Finds the configurations which match resource super types and list given super type.
+     *
+     * @return ascending positions of the candidate configurations or {@code null} if there are none
+     */
+    int[] getSuperTypeCandidates(String superType) {
+        final int[] candidates = getCandidates(superType);
+        if (candidates == null) {
+            return null;
+        }
+        final int[] result = Arrays.stream(candidates).filter(superTypeConfigs::get).toArray();
+        return result.length == 0 ? null : result;
+    }
+
+    Configuration getConfiguration(String resourcePath, int[] candidates) {
+        BitSet prefixMatches = null;
+        BitSet regexCandidates = null;
+        for (int i : candidates) {
+            final Configuration c = configs[i];
+            final PathMatcher pathMatcher = c.getPathMatcher();
+            if (pathMatcher instanceof PrefixPathMatcher) {
+                if (prefixMatches == null) {
+                    prefixMatches = prefixTrie.match(resourcePath);
+                }
+                if (prefixMatches.get(i)) {
+                    return c;
+                }
+            } else if (pathMatcher instanceof RegexPathMatcher) {
+                if (regexCandidates == null) {
+                    regexCandidates = regexMatcher.candidates(resourcePath);
+                }
+                if (regexCandidates.get(i) && regexMatcher.match(i, resourcePath)) {
+                    return c;
+                }
+            } else if (pathMatcher.match(resourcePath)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        final int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+}
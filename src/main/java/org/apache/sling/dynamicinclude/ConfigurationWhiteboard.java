@@ -19,40 +19,227 @@
 
 package org.apache.sling.dynamicinclude;
 
-import static org.osgi.service.component.annotations.FieldOption.UPDATE;
 import static org.osgi.service.component.annotations.ReferenceCardinality.MULTIPLE;
+import static org.osgi.service.component.annotations.ReferenceCardinality.OPTIONAL;
 import static org.osgi.service.component.annotations.ReferencePolicy.DYNAMIC;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.dynamicinclude.resourcetype.ResourceTypeHierarchy;
+import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 
 @Component(service = ConfigurationWhiteboard.class)
 public class ConfigurationWhiteboard {
 
-    @Reference(service = Configuration.class, cardinality = MULTIPLE, policy = DYNAMIC, fieldOption = UPDATE)
-    // declared Collection due to SLING-8986
-    private volatile Collection<Configuration> configs = new CopyOnWriteArraySet<Configuration>();
+    private static final String RESOLUTION_CACHE_ATTRIBUTE = ConfigurationWhiteboard.class.getName() + ".resolutionCache";
+
+    // guarded by itself, only used to rebuild the index
+    private final Map<Configuration, RankedConfiguration> configs = new LinkedHashMap<>();
+
+    private volatile ConfigurationIndex index = ConfigurationIndex.EMPTY;
+
+    // only needed by the configurations matching resource super types
+    @Reference(cardinality = OPTIONAL, policy = DYNAMIC)
+    private volatile ResourceTypeHierarchy resourceTypeHierarchy;
+
+    private final LongAdder lookups = new LongAdder();
+
+    private final LongAdder fastPathLookups = new LongAdder();
 
     public Configuration getConfiguration(SlingHttpServletRequest request, String resourceType) {
-        for (Configuration c : configs) {
-            if (isEnabled(c, request) && c.isSupportedResourceType(resourceType)) {
-                return c;
+        return getConfiguration(request, null, true, resourceType);
+    }
+
+    /**
+     * Returns the configuration of a resource other than the one of the request, e.g. the one
+     * addressed by an include url.
+     * @param request the request, used to keep the decisions and to read the resource super types
+     *        if needed
+     * @param resourcePath path of the resource
+     * @param resourceType type of the resource
+     * @return the configuration or {@code null}
+     */
+    public Configuration getConfiguration(SlingHttpServletRequest request, String resourcePath, String resourceType) {
+        return getConfiguration(request, resourcePath, false, resourceType);
+    }
+
+    private Configuration getConfiguration(SlingHttpServletRequest request, String resourcePath,
+            boolean requestResource, String resourceType) {
+        final ConfigurationIndex current = index;
+        lookups.increment();
+        final int[] candidates = current.getCandidates(resourceType);
+        if (candidates == null && (resourceType == null || !current.hasSuperTypeConfigs())) {
+            fastPathLookups.increment();
+            return null;
+        }
+        final String requestPath = requestResource ? request.getRequestPathInfo().getResourcePath() : resourcePath;
+        if (requestPath == null) {
+            return resolve(request, requestPath, resourceType, current, candidates);
+        }
+        return getResolutionCache(request, current).resolve(requestPath, resourceType,
+                () -> resolve(request, requestPath, resourceType, current, candidates));
+    }
+
+    private Configuration resolve(SlingHttpServletRequest request, String requestPath, String resourceType,
+            ConfigurationIndex current, int[] candidates) {
+        if (candidates != null) {
+            final Configuration config = current.getConfiguration(requestPath, candidates);
+            if (config != null) {
+                return config;
+            }
+        }
+        final ResourceTypeHierarchy hierarchy = resourceTypeHierarchy;
+        if (current.hasSuperTypeConfigs() && hierarchy != null) {
+            // the closest super type wins
+            for (String superType : hierarchy.getSuperTypes(resourceType, request.getResourceResolver())) {
+                final int[] superTypeCandidates = current.getSuperTypeCandidates(superType);
+                if (superTypeCandidates != null) {
+                    final Configuration config = current.getConfiguration(requestPath, superTypeCandidates);
+                    if (config != null) {
+                        return config;
+                    }
+                }
             }
         }
         return null;
     }
 
-    private boolean isEnabled(Configuration config, SlingHttpServletRequest request) {
-        final String requestPath = request.getRequestPathInfo().getResourcePath();
-        return config.isEnabled() && config.getPathMatcher().match(requestPath);
+    /**
+     * The filters resolve the configuration for the same resource several times during a single
+     * request, so the decisions (including negative ones) are kept in a request attribute. The
+     * cache is tied to the index it was computed from and is discarded if the index changes.
+     */
+    private static ResolutionCache getResolutionCache(SlingHttpServletRequest request, ConfigurationIndex current) {
+        final Object attribute = request.getAttribute(RESOLUTION_CACHE_ATTRIBUTE);
+        if (attribute instanceof ResolutionCache && ((ResolutionCache) attribute).index == current) {
+            return (ResolutionCache) attribute;
+        }
+        final ResolutionCache cache = new ResolutionCache(current);
+        request.setAttribute(RESOLUTION_CACHE_ATTRIBUTE, cache);
+        return cache;
+    }
+
+    /**
+     * @return the enabled configurations, in the order of precedence
+     */
+    public List<Configuration> getConfigurations() {
+        return index.getConfigurations();
+    }
+
+    /**
+     * @return true if any of the enabled configurations uses given include type, the answer is
+     *         kept until the configurations change
+     */
+    public boolean usesIncludeType(String type) {
+        return index.usesIncludeType(type);
+    }
+
+    /**
+     * @return number of configuration lookups
+     */
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+
+    /**
+     * @return number of configuration lookups answered without path matching, because none of the
+     * enabled configurations lists the resource type
+     */
+    public long getFastPathLookupCount() {
+        return fastPathLookups.sum();
+    }
+
+    @Reference(name = "configs", service = Configuration.class, cardinality = MULTIPLE, policy = DYNAMIC,
+            updated = "updatedConfigs")
+    void bindConfigs(final Configuration config, final Map<String, Object> properties) {
+        synchronized (configs) {
+            configs.put(config, new RankedConfiguration(config, properties));
+            index = new ConfigurationIndex(rank(configs.values()));
+        }
     }
-    
-    // visible for testing
-    void bindConfigs(final Configuration config) {
-        configs.add(config);
+
+    void updatedConfigs(final Configuration config, final Map<String, Object> properties) {
+        bindConfigs(config, properties);
+    }
+
+    void unbindConfigs(final Configuration config) {
+        synchronized (configs) {
+            configs.remove(config);
+            index = new ConfigurationIndex(rank(configs.values()));
+        }
+    }
+
+    private static List<Configuration> rank(Collection<RankedConfiguration> ranked) {
+        final List<RankedConfiguration> sorted = new ArrayList<>(ranked);
+        Collections.sort(sorted);
+        final List<Configuration> result = new ArrayList<>(sorted.size());
+        for (RankedConfiguration r : sorted) {
+            result.add(r.config);
+        }
+        return result;
+    }
+
+    /**
+     * Orders the configurations like the service registry orders services: the highest
+     * {@code service.ranking} first and the lowest {@code service.id} (the oldest service) first
+     * among equal rankings.
+     */
+    private static final class RankedConfiguration implements Comparable<RankedConfiguration> {
+
+        private final Configuration config;
+
+        private final int ranking;
+
+        private final long serviceId;
+
+        private RankedConfiguration(Configuration config, Map<String, Object> properties) {
+            this.config = config;
+            final Object ranking = properties.get(Constants.SERVICE_RANKING);
+            this.ranking = ranking instanceof Integer ? (Integer) ranking : 0;
+            final Object serviceId = properties.get(Constants.SERVICE_ID);
+            this.serviceId = serviceId instanceof Long ? (Long) serviceId : Long.MAX_VALUE;
+        }
+
+        @Override
+        public int compareTo(RankedConfiguration o) {
+            if (ranking != o.ranking) {
+                return ranking > o.ranking ? -1 : 1;
+            }
+            return Long.compare(serviceId, o.serviceId);
+        }
+    }
+
+    private static final class ResolutionCache {
+
+        private final ConfigurationIndex index;
+
+        private final Map<String, Map<String, Optional<Configuration>>> byPath = new ConcurrentHashMap<>();
+
+        private ResolutionCache(ConfigurationIndex index) {
+            this.index = index;
+        }
+
+        private Configuration resolve(String resourcePath, String resourceType, Supplier<Configuration> resolver) {
+            final Map<String, Optional<Configuration>> byType = byPath.computeIfAbsent(resourcePath,
+                    k -> new ConcurrentHashMap<>());
+            Optional<Configuration> result = byType.get(resourceType);
+            if (result == null) {
+                result = Optional.ofNullable(resolver.get());
+                byType.put(resourceType, result);
+            }
+            return result.orElse(null);
+        }
     }
 }
@@ -0,0 +1,140 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+import org.apache.sling.dynamicinclude.impl.FragmentCache;
+import org.apache.sling.dynamicinclude.impl.IncludeUrlCache;
+import org.apache.sling.dynamicinclude.impl.MappingCache;
+import org.apache.sling.dynamicinclude.impl.RequestCollapser;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Exposes {@link DynamicIncludeStatsMBean} through the JMX whiteboard.
+ */
+@Component(service = DynamicIncludeStatsMBean.class,
+    property = {
+        "jmx.objectname=org.apache.sling:type=DynamicInclude,name=Statistics",
+        Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
+    })
+public class DynamicIncludeStats implements DynamicIncludeStatsMBean {
+
+    @Reference
+    private ConfigurationWhiteboard configurationWhiteboard;
+
+    @Reference
+    private IncludeUrlCache includeUrlCache;
+
+    @Reference
+    private MappingCache mappingCache;
+
+    @Reference
+    private FragmentCache fragmentCache;
+
+    @Reference
+    private RequestCollapser requestCollapser;
+
+    @Override
+    public long getConfigurationLookups() {
+        return configurationWhiteboard.getLookupCount();
+    }
+
+    @Override
+    public long getFastPathLookups() {
+        return configurationWhiteboard.getFastPathLookupCount();
+    }
+
+    @Override
+    public double getFastPathRatio() {
+        final long lookups = getConfigurationLookups();
+        return lookups == 0 ? 0 : (double) getFastPathLookups() / lookups;
+    }
+
+    @Override
+    public long getIncludeUrlCacheHits() {
+        return includeUrlCache.getHitCount();
+    }
+
+    @Override
+    public long getIncludeUrlCacheMisses() {
+        return includeUrlCache.getMissCount();
+    }
+
+    @Override
+    public long getIncludeUrlCacheEvictions() {
+        return includeUrlCache.getEvictionCount();
+    }
+
+    @Override
+    public int getIncludeUrlCacheSize() {
+        return includeUrlCache.getSize();
+    }
+
+    @Override
+    public long getMappingCacheHits() {
+        return mappingCache.getHitCount();
+    }
+
+    @Override
+    public long getMappingCacheMisses() {
+        return mappingCache.getMissCount();
+    }
+
+    @Override
+    public long getMappingCacheEvictions() {
+        return mappingCache.getEvictionCount();
+    }
+
+    @Override
+    public int getMappingCacheSize() {
+        return mappingCache.getSize();
+    }
+
+    @Override
+    public long getFragmentCacheHits() {
+        return fragmentCache.getHitCount();
+    }
+
+    @Override
+    public long getFragmentCacheMisses() {
+        return fragmentCache.getMissCount();
+    }
+
+    @Override
+    public long getFragmentCacheEvictions() {
+        return fragmentCache.getEvictionCount();
+    }
+
+    @Override
+    public long getFragmentCacheSize() {
+        return fragmentCache.getSize();
+    }
+
+    @Override
+    public long getCollapsedRequests() {
+        return requestCollapser.getCollapsedCount();
+    }
+
+    @Override
+    public long getCollapsingTimeouts() {
+        return requestCollapser.getTimeoutCount();
+    }
+}
@@ -0,0 +1,112 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+/**
+ * Runtime statistics of the dynamic include filters.
+ */
+public interface DynamicIncludeStatsMBean {
+
+    /**
+     * @return number of configuration lookups done by the filters
+     */
+    long getConfigurationLookups();
+
+    /**
+     * @return number of configuration lookups which skipped path matching, because the resource
+     * type isn't configured for SDI
+     */
+    long getFastPathLookups();
+
+    /**
+     * @return ratio of the fast path lookups to all lookups
+     */
+    double getFastPathRatio();
+
+    /**
+     * @return number of include urls found in the include url cache
+     */
+    long getIncludeUrlCacheHits();
+
+    /**
+     * @return number of include urls which had to be built
+     */
+    long getIncludeUrlCacheMisses();
+
+    /**
+     * @return number of include urls evicted from the include url cache
+     */
+    long getIncludeUrlCacheEvictions();
+
+    /**
+     * @return number of include urls in the include url cache
+     */
+    int getIncludeUrlCacheSize();
+
+    /**
+     * @return number of include urls found in the mapping cache
+     */
+    long getMappingCacheHits();
+
+    /**
+     * @return number of include urls which had to be mapped by the resource resolver
+     */
+    long getMappingCacheMisses();
+
+    /**
+     * @return number of mapped urls evicted from the mapping cache
+     */
+    long getMappingCacheEvictions();
+
+    /**
+     * @return number of mapped urls in the mapping cache
+     */
+    int getMappingCacheSize();
+
+    /**
+     * @return number of include requests served from the fragment cache
+     */
+    long getFragmentCacheHits();
+
+    /**
+     * @return number of include requests which had to be rendered
+     */
+    long getFragmentCacheMisses();
+
+    /**
+     * @return number of fragments evicted from the fragment cache
+     */
+    long getFragmentCacheEvictions();
+
+    /**
+     * @return total size of the fragments in the fragment cache, in bytes
+     */
+    long getFragmentCacheSize();
+
+    /**
+     * @return number of include requests served with the response rendered for a concurrent one
+     */
+    long getCollapsedRequests();
+
+    /**
+     * @return number of include requests which stopped waiting for a concurrent one
+     */
+    long getCollapsingTimeouts();
+}
@@ -0,0 +1,365 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.dynamicinclude.impl.FragmentRenderer;
+import org.apache.sling.dynamicinclude.impl.FragmentRequest;
+import org.apache.sling.servlets.annotations.SlingServletPaths;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders several include urls in a single request and returns them as a JSON object mapping
+ * each url to its markup. Used by the batching JSI loader, so a page issues a single request for
+ * all its includes. Each url is rendered by the {@link FragmentRenderer} as a request of its own
+ * (with the filters of the include, like {@link SyntheticResourceFilter}), with the resolver of
+ * the batch request. Urls
+ * which don't address a resource of an enabled configuration with its include selector, or whose
+ * rendering fails, are left out, as well as the urls above the maximum number of fragments.
+ */
+@Component(service = { Servlet.class, FragmentBatchServlet.class }, property = Constants.SERVICE_VENDOR + "=The Apache Software Foundation")
+@SlingServletPaths(FragmentBatchServlet.PATH)
+@Designate(ocd = FragmentBatchServlet.Config.class)
+public class FragmentBatchServlet extends SlingSafeMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String PATH = "/bin/sling/dynamic-include/fragments";
+
+    public static final String URL_PARAMETER = "u";
+
+    public static final int DEFAULT_MAX_FRAGMENTS = 50;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FragmentBatchServlet.class);
+
+    // valid in JSON strings, but not in JavaScript ones
+    private static final char LINE_SEPARATOR = 0x2028;
+
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+    @ObjectClassDefinition(name = "Apache Sling Dynamic Include - Fragment Batch Servlet")
+    public @interface Config {
+        @AttributeDefinition(name = "Maximum fragments", description = "Maximum number of fragments rendered for a single batch request")
+        int include$_$filter_batch_max$_$fragments() default DEFAULT_MAX_FRAGMENTS;
+
+        @AttributeDefinition(name = "Threads", description = "Number of threads rendering the fragments in parallel, 0 renders them one by one in the request thread")
+        int include$_$filter_batch_threads() default 0;
+
+        @AttributeDefinition(name = "Timeout", description = "Time to wait for the fragments rendered in parallel (in milliseconds)")
+        long include$_$filter_batch_timeout() default 10000;
+    }
+
+    @Reference
+    private transient ConfigurationWhiteboard configurationWhiteboard;
+
+    @Reference
+    private transient FragmentRenderer renderer;
+
+    private int maxFragments;
+
+    private long timeout;
+
+    private transient ThreadPoolExecutor executor;
+
+    @Activate
+    public void activate(Config cfg) {
+        maxFragments = cfg.include$_$filter_batch_max$_$fragments();
+        timeout = cfg.include$_$filter_batch_timeout();
+        final int threads = cfg.include$_$filter_batch_threads();
+        if (threads > 0) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(threads * maxFragments), r -> {
+                final Thread thread = new Thread(r, "sling-dynamic-include-fragments-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return maximum number of fragments rendered for a single request, so the loader can split
+     *         the batches accordingly
+     */
+    public int getMaxFragments() {
+        return maxFragments;
+    }
+
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response) throws ServletException, IOException {
+        final String[] values = request.getParameterValues(URL_PARAMETER);
+        if (values == null || values.length == 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        final Set<String> urls = new LinkedHashSet<>();
+        for (String url : values) {
+            if (urls.contains(url)) {
+                continue;
+            }
+            if (urls.size() >= maxFragments) {
+                // loaders cached with a greater maximum, the placeholders above it stay empty
+                LOG.debug("Ignoring {}, the batch is above {} fragments", url, maxFragments);
+            } else if (isIncludeUrl(request, url)) {
+                urls.add(url);
+            } else {
+                LOG.debug("Ignoring {}, it's not an include url", url);
+            }
+        }
+
+        final Map<String, String> fragments = executor == null ? renderSequentially(request, urls)
+                : renderInParallel(request, urls);
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "private, no-cache");
+        writeJson(fragments, response.getWriter());
+    }
+
+    /**
+     * Only urls addressing a resource covered by an enabled configuration (for the resource path
+     * and type, or the type in the suffix for synthetic resources) and carrying its include selector
+     * are rendered, so the servlet can't be used to render arbitrary resources.
+     */
+    private boolean isIncludeUrl(SlingHttpServletRequest request, String url) {
+        if (!StringUtils.startsWith(url, "/") || url.startsWith("//")) {
+            return false;
+        }
+        final String path = FragmentRenderer.decodePath(request, StringUtils.substringBefore(url, "?"));
+        final Resource resource = request.getResourceResolver().resolve(request, path);
+        final String resourcePath;
+        final String pathInfo;
+        final boolean synthetic = ResourceUtil.isNonExistingResource(resource);
+        if (synthetic) {
+            // split at the first dot, like the resolver does for non existing resources
+            final int dot = path.indexOf('.');
+            resourcePath = dot < 0 ? path : path.substring(0, dot);
+            pathInfo = dot < 0 ? "" : path.substring(dot);
+        } else {
+            resourcePath = resource.getPath();
+            pathInfo = StringUtils.defaultString(resource.getResourceMetadata().getResolutionPathInfo());
+        }
+        final String suffix = pathInfo.indexOf('/') < 0 ? "" : pathInfo.substring(pathInfo.indexOf('/'));
+        final String resourceType = synthetic
+                ? StringUtils.removeStart(StringUtils.substringBeforeLast(suffix, "."), "/")
+                : resource.getResourceType();
+        final Configuration config = configurationWhiteboard.getConfiguration(request, resourcePath, resourceType);
+        if (config == null) {
+            return false;
+        }
+        final String[] selectors = StringUtils.split(StringUtils.substringBefore(pathInfo, "/"), '.');
+        return selectors.length > 1
+                && ArrayUtils.contains(Arrays.copyOf(selectors, selectors.length - 1), config.getIncludeSelector());
+    }
+
+    private Map<String, String> renderSequentially(SlingHttpServletRequest request, Set<String> urls) {
+        final Map<String, String> fragments = new LinkedHashMap<>();
+        for (String url : urls) {
+            final String fragment = renderer.render(request, request.getResourceResolver(), url);
+            if (fragment != null) {
+                fragments.put(url, fragment);
+            }
+        }
+        return fragments;
+    }
+
+    /**
+     * Renders the fragments with the executor, each one with a clone of the request resolver, as
+     * resolvers can't be shared between threads. The clones and the fragment requests are made in the
+     * request thread, which owns the request and its resolver. Fragments which can't be scheduled are rendered in the request
+     * thread, fragments not rendered within the timeout are left out.
+     */
+    private Map<String, String> renderInParallel(SlingHttpServletRequest request, Set<String> urls) {
+        final Map<String, Future<String>> futures = new LinkedHashMap<>();
+        final Map<Future<String>, FragmentTask> tasks = new HashMap<>();
+        final List<String> rejected = new ArrayList<>();
+        for (String url : urls) {
+            final FragmentRequest fragmentRequest = renderer.newRequest(request, url);
+            if (fragmentRequest == null) {
+                continue;
+            }
+            final ResourceResolver resolver;
+            try {
+                resolver = request.getResourceResolver().clone(null);
+            } catch (LoginException e) {
+                LOG.warn("Can't clone the resolver to render fragment {}", url, e);
+                rejected.add(url);
+                continue;
+            }
+            final FragmentTask task = new FragmentTask(fragmentRequest, resolver);
+            try {
+                final Future<String> future = executor.submit(task);
+                futures.put(url, future);
+                tasks.put(future, task);
+            } catch (RejectedExecutionException e) {
+                task.discard();
+                rejected.add(url);
+            }
+        }
+        final Map<String, String> fragments = new LinkedHashMap<>();
+        for (String url : rejected) {
+            final String fragment = renderer.render(request, request.getResourceResolver(), url);
+            if (fragment != null) {
+                fragments.put(url, fragment);
+            }
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (Map.Entry<String, Future<String>> e : futures.entrySet()) {
+            try {
+                final String fragment = e.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (fragment != null) {
+                    fragments.put(e.getKey(), fragment);
+                }
+            } catch (TimeoutException ex) {
+                LOG.warn("Fragment {} not rendered within {} ms", e.getKey(), timeout);
+                e.getValue().cancel(true);
+                tasks.get(e.getValue()).discard();
+            } catch (ExecutionException ex) {
+                LOG.warn("Can't render fragment {}", e.getKey(), ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                e.getValue().cancel(true);
+                tasks.get(e.getValue()).discard();
+            }
+        }
+        return fragments;
+    }
+
+    /**
+     * Renders a fragment with its own resolver, which is closed by the task, or by the request
+     * thread if the task is discarded before it starts.
+     */
+    private final class FragmentTask implements Callable<String> {
+
+        private final FragmentRequest fragmentRequest;
+
+        private final ResourceResolver resolver;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private FragmentTask(FragmentRequest fragmentRequest, ResourceResolver resolver) {
+            this.fragmentRequest = fragmentRequest;
+            this.resolver = resolver;
+        }
+
+        @Override
+        public String call() {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                return renderer.render(fragmentRequest, resolver);
+            } finally {
+                resolver.close();
+            }
+        }
+
+        private void discard() {
+            if (claimed.compareAndSet(false, true)) {
+                resolver.close();
+            }
+        }
+    }
+
+    private static void writeJson(Map<String, String> fragments, PrintWriter writer) {
+        writer.write('{');
+        boolean first = true;
+        for (Map.Entry<String, String> e : fragments.entrySet()) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writeJsonString(e.getKey(), writer);
+            writer.write(':');
+            writeJsonString(e.getValue(), writer);
+        }
+        writer.write('}');
+    }
+
+    private static void writeJsonString(String value, PrintWriter writer) {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20 || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                writer.write(value, start, i - start);
+                if (c == '"' || c == '\\') {
+                    writer.write('\\');
+                    writer.write(c);
+                } else {
+                    writer.write(String.format("\\u%04x", (int) c));
+                }
+                start = i + 1;
+            }
+        }
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+}
@@ -0,0 +1,162 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.concurrent.CompletableFuture;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.dynamicinclude.impl.FragmentCache;
+import org.apache.sling.dynamicinclude.impl.RecordingResponse;
+import org.apache.sling.dynamicinclude.impl.RequestCollapser;
+import org.apache.sling.servlets.annotations.SlingServletFilter;
+import org.apache.sling.servlets.annotations.SlingServletFilterScope;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Serves the include requests of the configurations enabling the fragment cache from the
+ * {@link FragmentCache}. The cache key is the include url with the user and the configured vary
+ * headers. The filter runs before the other dynamic include filters, so a cached response skips
+ * them all. Once the cached response expires, it's still served during the stale-while-revalidate
+ * time, while the first request renders it again. For the configurations enabling request collapsing, concurrent
+ * requests for a key missing in the cache wait for the first one with the {@link RequestCollapser}.
+ * As the key has the user, only the requests of the same user are collapsed.
+ */
+@SlingServletFilter(scope = SlingServletFilterScope.REQUEST)
+@Component(property = {
+    Constants.SERVICE_RANKING + ":Integer=1000",
+    Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
+})
+public class FragmentCacheFilter implements Filter {
+
+    @Reference
+    private ConfigurationWhiteboard configurationWhiteboard;
+
+    @Reference
+    private FragmentCache fragmentCache;
+
+    @Reference
+    private RequestCollapser requestCollapser;
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+        final Configuration config = getConfiguration(slingRequest);
+        if (config == null || !"GET".equals(slingRequest.getMethod())
+                || !(response instanceof SlingHttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final String key = getKey(slingRequest, config);
+        final long now = System.currentTimeMillis();
+        final FragmentCache.Entry cached = config.isFragmentCacheEnabled() ? fragmentCache.get(key, now) : null;
+        if (cached != null && (cached.isFresh(now) || !cached.startRevalidation())) {
+            cached.writeTo((SlingHttpServletResponse) response, now);
+            return;
+        }
+
+        CompletableFuture<FragmentCache.Entry> render = null;
+        // only requests of the same user share a render, the key has the user
+        if (config.isRequestCollapsing() && cached == null
+                && slingRequest.getResourceResolver().getUserID() != null) {
+            render = new CompletableFuture<>();
+            final CompletableFuture<FragmentCache.Entry> pending = requestCollapser.register(key, render);
+            if (pending != null) {
+                render = null;
+                final FragmentCache.Entry collapsed = requestCollapser.await(pending, config.getRequestCollapsingTimeout());
+                if (collapsed != null) {
+                    collapsed.writeTo((SlingHttpServletResponse) response, System.currentTimeMillis());
+                    return;
+                }
+            }
+        }
+
+        final RecordingResponse recording = new RecordingResponse((SlingHttpServletResponse) response,
+                fragmentCache.getMaxEntrySize(), config.getFragmentCacheVary());
+        FragmentCache.Entry entry = null;
+        boolean stored = false;
+        try {
+            chain.doFilter(request, recording);
+            entry = recording.toEntry(now, Math.max(0, config.getTtl()), config.getStaleWhileRevalidate());
+            stored = entry != null && config.isFragmentCacheEnabled() && fragmentCache.put(key, entry);
+        } finally {
+            if (cached != null && !stored) {
+                cached.endRevalidation();
+            }
+            if (render != null) {
+                requestCollapser.complete(key, render, entry);
+            }
+        }
+    }
+
+    private Configuration getConfiguration(SlingHttpServletRequest request) {
+        final Resource resource = request.getResource();
+        final String resourceType = ResourceUtil.isSyntheticResource(resource)
+                ? SyntheticResourceFilter.getResourceTypeFromSuffix(request) : resource.getResourceType();
+        final Configuration config = configurationWhiteboard.getConfiguration(request, resourceType);
+        if (config == null || !(config.isFragmentCacheEnabled() || config.isRequestCollapsing())
+                || !config.hasIncludeSelector(request)) {
+            return null;
+        }
+        return config;
+    }
+
+    /**
+     * The include may render content of the user, so the key has the user of the request resolver.
+     */
+    private static String getKey(SlingHttpServletRequest request, Configuration config) {
+        final StringBuilder key = new StringBuilder(request.getServerName()).append(request.getRequestURI());
+        if (request.getQueryString() != null) {
+            key.append('?').append(request.getQueryString());
+        }
+        key.append('\n').append(request.getResourceResolver().getUserID());
+        for (String header : config.getFragmentCacheVary()) {
+            key.append('\n').append(header).append(':');
+            final Enumeration<String> values = request.getHeaders(header);
+            while (values != null && values.hasMoreElements()) {
+                key.append(values.nextElement()).append(',');
+            }
+        }
+        return key.toString();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
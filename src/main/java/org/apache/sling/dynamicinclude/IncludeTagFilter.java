@@ -21,7 +21,7 @@ package org.apache.sling.dynamicinclude;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.net.URI;
+import java.io.Writer;
 import java.net.URISyntaxException;
 
 import javax.servlet.Filter;
@@ -38,6 +38,9 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.dynamicinclude.api.IncludeGenerator;
 import org.apache.sling.dynamicinclude.generator.IncludeGeneratorWhiteboard;
+import org.apache.sling.dynamicinclude.impl.IncludeUrlCache;
+import org.apache.sling.dynamicinclude.impl.MappingCache;
+import org.apache.sling.dynamicinclude.impl.TopLevelResponse;
 import org.apache.sling.dynamicinclude.impl.UrlBuilder;
 import org.apache.sling.dynamicinclude.util.RequestHelperUtil;
 import org.apache.sling.servlets.annotations.SlingServletFilter;
@@ -54,7 +57,13 @@ public class IncludeTagFilter implements Filter {
 
     private static final Logger LOG = LoggerFactory.getLogger(IncludeTagFilter.class);
 
-    private static final String COMMENT = "<!-- SDI include (path: %s, resourceType: %s) -->\n";
+    private static final String COMMENT_START = "<!-- SDI include (path: ";
+
+    private static final String COMMENT_RESOURCE_TYPE = ", resourceType: ";
+
+    private static final String COMMENT_END = ") -->\n";
+
+    private static final String ESI_TYPE = "ESI";
 
     @Reference
     private ConfigurationWhiteboard configurationWhiteboard;
@@ -62,6 +71,12 @@ public class IncludeTagFilter implements Filter {
     @Reference
     private IncludeGeneratorWhiteboard generatorWhiteboard;
 
+    @Reference
+    private IncludeUrlCache includeUrlCache;
+
+    @Reference
+    private MappingCache mappingCache;
+
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
             ServletException {
@@ -74,9 +89,10 @@ public class IncludeTagFilter implements Filter {
             return;
         }
 
-        final IncludeGenerator generator = generatorWhiteboard.getGenerator(config.getIncludeTypeName());
+        final String includeTypeName = config.getIncludeTypeName(slingRequest);
+        final IncludeGenerator generator = generatorWhiteboard.getGenerator(includeTypeName);
         if (generator == null) {
-            LOG.error("Invalid generator: " + config.getIncludeTypeName());
+            LOG.error("Invalid generator: " + includeTypeName);
             chain.doFilter(request, response);
             return;
         }
@@ -89,23 +105,64 @@ public class IncludeTagFilter implements Filter {
         }
 
         if (config.getAddComment()) {
-            writer.append(String.format(COMMENT, StringEscapeUtils.escapeHtml4(url), resourceType));
+            writeComment(writer, url, resourceType);
         }
 
         // Only write the includes markup if the required, configurable request
         // header is present
         if (shouldWriteIncludes(config, slingRequest)) {
-            String include = generator.getInclude(slingRequest,url);
-            LOG.debug(include);
-            writer.append(include);
+            IncludeGenerator includeGenerator = generator;
+            if (!addVary(request, config)) {
+                // the page can't vary on the negotiation headers anymore, every client gets the include type
+                LOG.debug("Can't add {} to the page, using the {} include type", TopLevelResponse.VARY, config.getIncludeTypeName());
+                includeGenerator = generatorWhiteboard.getGenerator(config.getIncludeTypeName());
+                if (includeGenerator == null) {
+                    LOG.error("Invalid generator: " + config.getIncludeTypeName());
+                    chain.doFilter(request, response);
+                    return;
+                }
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Writing {} include of {}", includeGenerator.getType(), url);
+            }
+            // edge caches only process ESI on the pages marked with Surrogate-Control
+            if (config.getSurrogateControl() != null && ESI_TYPE.equals(includeGenerator.getType())
+                    && !TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, config.getSurrogateControl())) {
+                LOG.debug("Can't mark the page with {}, rendering {} in place", TopLevelResponse.SURROGATE_CONTROL, url);
+                chain.doFilter(request, response);
+                return;
+            }
+            includeGenerator.writeInclude(slingRequest, url, config.getGeneratorOptions(), writer);
         } else {
             chain.doFilter(request, response);
         }
     }
 
+    /**
+     * Adds the include type negotiation headers to the {@code Vary} header of the page.
+     *
+     * @return false if the page is already committed without them
+     */
+    private static boolean addVary(ServletRequest request, Configuration config) {
+        for (String header : config.getNegotiationHeaders()) {
+            if (!TopLevelResponse.addHeaderValue(request, TopLevelResponse.VARY, header)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeComment(Writer writer, String url, String resourceType) throws IOException {
+        writer.write(COMMENT_START);
+        StringEscapeUtils.ESCAPE_HTML4.translate(url, writer);
+        writer.write(COMMENT_RESOURCE_TYPE);
+        writer.write(String.valueOf(resourceType));
+        writer.write(COMMENT_END);
+    }
+
     private boolean shouldWriteIncludes(Configuration config, SlingHttpServletRequest request) {
         // Do not skip GET requests when DisableIgnoreUrlParams set to true.
-        if (!config.isDisableIgnoreUrlParams() && RequestHelperUtil.requestHasNonIgnoredParameters(config.getIgnoreUrlParams(), request)) {
+        if (!config.isDisableIgnoreUrlParams() && RequestHelperUtil.requestHasNonIgnoredParameters(config.getIgnoreUrlParamsClassifier(), request)) {
             return false;
         }
         final String requiredHeader = config.getRequiredHeader();
@@ -134,40 +191,35 @@ public class IncludeTagFilter implements Filter {
     }
 
     private String getUrl(Configuration config, SlingHttpServletRequest request) {
-        String url = buildUrl(config, request);
-        if (config.isRewritePath()) {
-            url = removeQuestionMark(url);
-            url = request.getResourceResolver().map(request, url);
-        } else {
-            url = encodeJcrContentPart(url);
-            try {
-                url = new URI(null, null, url, null).toASCIIString();
-            } catch (URISyntaxException e) {
-                LOG.error("Include url is in the wrong format", e);
+        final Resource resource = request.getResource();
+        final boolean synthetic = ResourceUtil.isSyntheticResource(resource);
+        final IncludeUrlCache.Key key = new IncludeUrlCache.Key(config, request.getRequestPathInfo(),
+                resource.getResourceType(), synthetic);
+        String url = includeUrlCache.get(key);
+        if (url == null) {
+            url = buildUrl(config, request, resource, synthetic);
+            if (url == null) {
                 return null;
             }
+            includeUrlCache.put(key, url);
+        }
+        if (config.isRewritePath()) {
+            url = mappingCache.map(request, url);
         }
-
         return url;
     }
 
-    private String buildUrl(Configuration config, SlingHttpServletRequest request) {
-        final Resource resource = request.getResource();
-
-        final boolean synthetic = ResourceUtil.isSyntheticResource(request.getResource());
-        return UrlBuilder.buildUrl(config.getIncludeSelector(), resource.getResourceType(), synthetic, config, request.getRequestPathInfo());
-    }
-
-    private static String sanitize(String path) {
-        return StringUtils.defaultString(path);
-    }
-
-    private static String encodeJcrContentPart(String url) {
-        return url.replace("jcr:content", "_jcr_content");
-    }
-
-    private static String removeQuestionMark(String url) {
-        return url.replaceAll("[?]", "");
+    /**
+     * Builds the include url. For the configurations rewriting the path the url still has to be
+     * mapped, as the mapping depends on the request.
+     */
+    private String buildUrl(Configuration config, SlingHttpServletRequest request, Resource resource, boolean synthetic) {
+        try {
+            return UrlBuilder.buildIncludeUrl(config.getIncludeSelector(), resource.getResourceType(), synthetic, config, request.getRequestPathInfo());
+        } catch (URISyntaxException e) {
+            LOG.error("Include url is in the wrong format", e);
+            return null;
+        }
     }
 
     @Override
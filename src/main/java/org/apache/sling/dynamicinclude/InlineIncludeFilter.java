@@ -0,0 +1,92 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.dynamicinclude.impl.FragmentRenderer;
+import org.apache.sling.dynamicinclude.impl.FragmentRequest;
+import org.apache.sling.dynamicinclude.impl.StitchingResponse;
+import org.apache.sling.servlets.annotations.SlingServletFilter;
+import org.apache.sling.servlets.annotations.SlingServletFilterScope;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Wraps the top level response with a {@link StitchingResponse} if any configuration uses the
+ * {@value #INLINE_TYPE} include type, so the fragments rendered in the background are written in
+ * document order. The requests of the fragments themselves aren't wrapped, their inline includes
+ * are rendered synchronously. The response only starts stitching once the first fragment is
+ * added, so pages without inline includes are written as they are. The fragments still missing once the request is processed are waited for, the
+ * ones not rendered in time are cancelled and the request completes once they stopped.
+ */
+@SlingServletFilter(scope = SlingServletFilterScope.REQUEST)
+@Component(property = {
+    Constants.SERVICE_RANKING + ":Integer=0"
+})
+public class InlineIncludeFilter implements Filter {
+
+    private static final String INLINE_TYPE = "INLINE";
+
+    @Reference
+    private ConfigurationWhiteboard configurationWhiteboard;
+
+    @Reference
+    private FragmentRenderer renderer;
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        if (!configurationWhiteboard.usesIncludeType(INLINE_TYPE) || FragmentRequest.isFragment(request)
+                || !(response instanceof SlingHttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final StitchingResponse stitchingResponse = new StitchingResponse((SlingHttpServletResponse) response);
+        stitchingResponse.register(request);
+        try {
+            chain.doFilter(request, stitchingResponse);
+        } finally {
+            try {
+                stitchingResponse.finish(renderer.getTimeout());
+            } finally {
+                // the fragments given up are cancelled, they must not outlive the request
+                renderer.join(stitchingResponse.getFragments());
+            }
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
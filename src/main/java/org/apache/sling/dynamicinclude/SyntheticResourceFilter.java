@@ -72,7 +72,7 @@ public class SyntheticResourceFilter implements Filter {
         dispatcher.forward(request, response);
     }
 
-    private static String getResourceTypeFromSuffix(final SlingHttpServletRequest request) {
+    static String getResourceTypeFromSuffix(final SlingHttpServletRequest request) {
         String suffix = request.getRequestPathInfo().getSuffix();
         suffix = StringUtils.substringBeforeLast(suffix, ".");
         return StringUtils.removeStart(suffix, "/");
@@ -19,6 +19,10 @@
 
 package org.apache.sling.dynamicinclude.api;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
 import org.apache.sling.api.SlingHttpServletRequest;
 
 /**
@@ -44,4 +48,40 @@ public interface IncludeGenerator {
      * @return a String used to include the resource
      **/
     String getInclude(SlingHttpServletRequest request, String normalizedUrl);
+
+    /**
+     * Writes the string used to include the resource directly to the response writer.
+     * The output has to be the same as the one of {@link #getInclude(SlingHttpServletRequest, String)}.
+     * <p>
+     * The default implementation writes the result of {@link #getInclude(SlingHttpServletRequest, String)}.
+     * Generators should override it to avoid building an intermediate string for every include.
+     *
+     * @param request       the Sling request object
+     * @param normalizedUrl the requested url, normalized
+     * @param out           the writer to write the include to
+     * @throws IOException if writing fails
+     * @since 1.1.0
+     **/
+    default void writeInclude(SlingHttpServletRequest request, String normalizedUrl, Writer out) throws IOException {
+        out.write(getInclude(request, normalizedUrl));
+    }
+
+    /**
+     * Writes the string used to include the resource, taking the generator options of the
+     * configuration into account. Options unknown to the generator are ignored.
+     * <p>
+     * The default implementation ignores the options and calls
+     * {@link #writeInclude(SlingHttpServletRequest, String, Writer)}.
+     *
+     * @param request       the Sling request object
+     * @param normalizedUrl the requested url, normalized
+     * @param options       the generator options, never {@code null}
+     * @param out           the writer to write the include to
+     * @throws IOException if writing fails
+     * @since 1.2.0
+     **/
+    default void writeInclude(SlingHttpServletRequest request, String normalizedUrl, Map<String, String> options, Writer out)
+            throws IOException {
+        writeInclude(request, normalizedUrl, out);
+    }
 }
@@ -17,7 +17,7 @@
  * under the License.
  */
 
-@Version("1.0.0")
+@Version("1.2.0")
 package org.apache.sling.dynamicinclude.api;
 
 import org.osgi.annotation.versioning.Version;
\ No newline at end of file
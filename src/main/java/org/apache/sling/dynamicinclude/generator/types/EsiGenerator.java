@@ -19,18 +19,33 @@
 
 package org.apache.sling.dynamicinclude.generator.types;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+
 import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.dynamicinclude.Configuration;
 import org.apache.sling.dynamicinclude.api.IncludeGenerator;
 import org.osgi.service.component.annotations.Component;
 
 /**
  * ESI include generator
+ * <p>
+ * The {@value #ONERROR_OPTION} option sets the {@code onerror} attribute of the include, e.g.
+ * {@code onerror=continue} to let the edge assemble the page even if the fragment fails. The
+ * {@value Configuration#ALT_SELECTOR_OPTION} option adds an {@code alt} url, which is the include url
+ * with the given selector added after the filter selector. The edge fetches it once the include url
+ * fails, and the variant gets the ESI alt edge TTL of the configuration, so it can be kept for longer.
  */
 @Component
 public class EsiGenerator implements IncludeGenerator {
     private static final String GENERATOR_NAME = "ESI";
 
+    static final String ONERROR_OPTION = "onerror";
+
     @Override
     public String getType() {
         return GENERATOR_NAME;
@@ -38,10 +53,61 @@ public class EsiGenerator implements IncludeGenerator {
 
     @Override
     public String getInclude(SlingHttpServletRequest request, String url) {
-        StringBuffer buf = new StringBuffer();
-        buf.append("<esi:include src=\"");
-        buf.append(StringEscapeUtils.escapeHtml4(url));
-        buf.append("\"/>");
-        return buf.toString();
+        final StringWriter writer = new StringWriter();
+        try {
+            writeInclude(request, url, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public void writeInclude(SlingHttpServletRequest request, String url, Writer out) throws IOException {
+        out.write("<esi:include src=\"");
+        StringEscapeUtils.ESCAPE_HTML4.translate(url, out);
+        out.write("\"/>");
+    }
+
+    @Override
+    public void writeInclude(SlingHttpServletRequest request, String url, Map<String, String> options, Writer out)
+            throws IOException {
+        final String alt = getAltUrl(url, options);
+        final String onerror = options.get(ONERROR_OPTION);
+        if (alt == null && StringUtils.isEmpty(onerror)) {
+            writeInclude(request, url, out);
+            return;
+        }
+        out.write("<esi:include src=\"");
+        StringEscapeUtils.ESCAPE_HTML4.translate(url, out);
+        if (alt != null) {
+            out.write("\" alt=\"");
+            StringEscapeUtils.ESCAPE_HTML4.translate(alt, out);
+        }
+        if (StringUtils.isNotEmpty(onerror)) {
+            out.write("\" onerror=\"");
+            StringEscapeUtils.ESCAPE_HTML4.translate(onerror, out);
+        }
+        out.write("\"/>");
+    }
+
+    /**
+     * Adds the alternative selector right after the filter selector of the url.
+     *
+     * @return the alternative url or {@code null} if there's none
+     */
+    static String getAltUrl(String url, Map<String, String> options) {
+        final String altSelector = StringUtils.trimToNull(options.get(Configuration.ALT_SELECTOR_OPTION));
+        final String selector = options.get(Configuration.SELECTOR_OPTION);
+        if (altSelector == null || StringUtils.isEmpty(selector)) {
+            return null;
+        }
+        final String marker = "." + selector + ".";
+        final int index = url.indexOf(marker);
+        if (index < 0) {
+            return null;
+        }
+        final int end = index + marker.length() - 1;
+        return url.substring(0, end) + '.' + altSelector + url.substring(end);
     }
 }
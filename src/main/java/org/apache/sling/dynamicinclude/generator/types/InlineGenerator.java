@@ -0,0 +1,84 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.generator.types;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.Future;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.dynamicinclude.InlineIncludeFilter;
+import org.apache.sling.dynamicinclude.api.IncludeGenerator;
+import org.apache.sling.dynamicinclude.impl.FragmentRenderer;
+import org.apache.sling.dynamicinclude.impl.StitchingResponse;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders the includes on the server side, for requests not passing through any SSI or ESI
+ * capable server. The includes are rendered in the background by the {@link FragmentRenderer},
+ * while the page goes on, and stitched into the page by the response of the
+ * {@link InlineIncludeFilter}, so the page waits only for its slowest include. Without that
+ * response the includes are rendered synchronously, in place.
+ */
+@Component
+public class InlineGenerator implements IncludeGenerator {
+    private static final String GENERATOR_NAME = "INLINE";
+
+    private static final Logger LOG = LoggerFactory.getLogger(InlineGenerator.class);
+
+    @Reference
+    private FragmentRenderer renderer;
+
+    @Override
+    public String getType() {
+        return GENERATOR_NAME;
+    }
+
+    @Override
+    public String getInclude(SlingHttpServletRequest request, String url) {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeInclude(request, url, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public void writeInclude(SlingHttpServletRequest request, String url, Writer out) throws IOException {
+        final StitchingResponse response = StitchingResponse.get(request);
+        if (response == null) {
+            LOG.debug("The response of {} isn't wrapped by the inline include filter, rendering {} synchronously",
+                    request.getRequestURI(), url);
+            final String fragment = renderer.render(request, request.getResourceResolver(), url);
+            if (fragment != null) {
+                out.write(fragment);
+            }
+            return;
+        }
+        final Future<String> fragment = renderer.submit(request, request.getResourceResolver(), url);
+        out.write(response.addFragment(fragment));
+    }
+}
@@ -0,0 +1,100 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.generator.types;
+
+import static org.osgi.service.component.annotations.ReferenceCardinality.OPTIONAL;
+import static org.osgi.service.component.annotations.ReferencePolicy.DYNAMIC;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.dynamicinclude.FragmentBatchServlet;
+import org.apache.sling.dynamicinclude.api.IncludeGenerator;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Client side include generator fetching all the includes of a page with a single request. Each
+ * include is an empty placeholder, while the first include of the request also adds a loader
+ * which collects the placeholders once the page is loaded and requests their content from the
+ * {@link FragmentBatchServlet}, in batches of at most its maximum number of fragments.
+ */
+@Component
+public class JsiBatchGenerator implements IncludeGenerator {
+    private static final String LOADER_FILENAME = "generators/javascript-batch.html";
+
+    private static final String SERVLET_PATH_FIELD = "servletPath";
+
+    private static final String MAX_FRAGMENTS_FIELD = "maxFragments";
+
+    private static final JsiTemplate PLACEHOLDER = JsiTemplate.compile(
+            "<div id=\"${uniqueId}\" data-sdi-url=\"${url}\"></div>\n", "uniqueId", "url");
+
+    private static final String LOADER_ATTRIBUTE = JsiBatchGenerator.class.getName() + ".loader";
+
+    private static final String GENERATOR_NAME = "JSI-BATCH";
+
+    @Reference(cardinality = OPTIONAL, policy = DYNAMIC)
+    private volatile FragmentBatchServlet batchServlet;
+
+    private volatile JsiTemplate loader;
+
+    @Activate
+    public void activate(ComponentContext ctx) {
+        loader = JsiTemplate.load(ctx, LOADER_FILENAME, SERVLET_PATH_FIELD, MAX_FRAGMENTS_FIELD);
+    }
+
+    @Override
+    public String getType() {
+        return GENERATOR_NAME;
+    }
+
+    @Override
+    public String getInclude(SlingHttpServletRequest request, String url) {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeInclude(request, url, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public void writeInclude(SlingHttpServletRequest request, String url, Writer out) throws IOException {
+        final JsiTemplate currentLoader = loader;
+        if (currentLoader == null) {
+            throw new IllegalStateException("JSI batch generator hasn't be initialized");
+        }
+        if (request.getAttribute(LOADER_ATTRIBUTE) == null) {
+            request.setAttribute(LOADER_ATTRIBUTE, Boolean.TRUE);
+            final String servletPath = request.getContextPath() + FragmentBatchServlet.PATH;
+            final FragmentBatchServlet servlet = batchServlet;
+            final int maxFragments = servlet == null ? FragmentBatchServlet.DEFAULT_MAX_FRAGMENTS : servlet.getMaxFragments();
+            currentLoader.write(new String[] { JsiGenerator.escapeEcmaScript(servletPath), String.valueOf(maxFragments) }, out);
+        }
+        PLACEHOLDER.write(new String[] { JsiGenerator.nextDivName(request), StringEscapeUtils.escapeHtml4(url) }, out);
+    }
+}
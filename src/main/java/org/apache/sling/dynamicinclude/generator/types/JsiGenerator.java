@@ -19,49 +19,82 @@
 
 package org.apache.sling.dynamicinclude.generator.types;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.net.URL;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.dynamicinclude.Configuration;
 import org.apache.sling.dynamicinclude.api.IncludeGenerator;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Client side include generator - using Ajax/JQuery.
+ * <p>
+ * With the {@value #LAZY_OPTION} option the fragment is requested only once its placeholder gets
+ * close to the viewport, within the {@value #ROOT_MARGIN_OPTION} margin. Browsers without
+ * {@code IntersectionObserver} request it right away, as do the resource types listed in the
+ * {@value #EAGER_RESOURCE_TYPES_OPTION} option.
+ * <p>
+ * With the {@value #CLIENT_CACHE_OPTION} option the fragments are kept in the session storage of
+ * the browser. A cached fragment is rendered right away and requested again only once it's older
+ * than the {@value Configuration#TTL_OPTION} option (in seconds, the component TTL of the configuration by
+ * default), so repeated page views don't wait for the fragment.
  */
 @Component
 public class JsiGenerator implements IncludeGenerator {
     private static final String TEMPLATE_FILENAME = "generators/javascript.html";
 
-    private static final String UUID_FIELD = "${uniqueId}";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
-    private static final String URL_FIELD = "${url}";
+    private static final String LAZY_TEMPLATE_FILENAME = "generators/javascript-lazy.html";
 
-    private static final Logger LOG = LoggerFactory.getLogger(JsiGenerator.class);
+    static final String LAZY_OPTION = "lazy";
+
+    static final String ROOT_MARGIN_OPTION = "lazy-root-margin";
+
+    static final String EAGER_RESOURCE_TYPES_OPTION = "eager-resource-types";
+
+    static final String CLIENT_CACHE_OPTION = "client-cache";
+
+    // disables the client cache in the templates
+    private static final String NO_CACHE = "-1";
+
+    private static final String DEFAULT_ROOT_MARGIN = "200px";
+
+    private static final String UUID_FIELD = "uniqueId";
+
+    private static final String URL_FIELD = "url";
+
+    private static final String CACHE_TTL_FIELD = "cacheTtl";
+
+    private static final String ROOT_MARGIN_FIELD = "rootMargin";
+
+    private static final String[] FIELDS = { UUID_FIELD, URL_FIELD, CACHE_TTL_FIELD };
+
+    private static final String[] LAZY_FIELDS = { UUID_FIELD, URL_FIELD, CACHE_TTL_FIELD, ROOT_MARGIN_FIELD };
+
+    private static final String DIV_PREFIX = "dynamic_include_filter_div_";
+
+    private static final String IDS_ATTRIBUTE = JsiGenerator.class.getName() + ".ids";
 
     private static final String GENERATOR_NAME = "JSI";
 
-    private volatile int divId = 1000;
+    private volatile JsiTemplate template;
 
-    private String template;
+    private volatile JsiTemplate lazyTemplate;
 
     @Activate
     public void activate(ComponentContext ctx) {
-        URL url = ctx.getBundleContext().getBundle().getResource(TEMPLATE_FILENAME);
-        if (url == null) {
-            LOG.error("File " + TEMPLATE_FILENAME + " not found in bundle.");
-            return;
-        }
-        readTemplateFromUrl(url);
+        template = JsiTemplate.load(ctx, TEMPLATE_FILENAME, FIELDS);
+        lazyTemplate = JsiTemplate.load(ctx, LAZY_TEMPLATE_FILENAME, LAZY_FIELDS);
     }
 
     @Override
@@ -71,42 +104,143 @@ public class JsiGenerator implements IncludeGenerator {
 
     @Override
     public String getInclude(SlingHttpServletRequest request, String url) {
-        if (template == null) {
-            throw new IllegalStateException("JSI generator hasn't be initialized");
+        return getTemplate(template).toString(values(request, url));
+    }
+
+    @Override
+    public void writeInclude(SlingHttpServletRequest request, String url, Writer out) throws IOException {
+        getTemplate(template).write(values(request, url), out);
+    }
+
+    @Override
+    public void writeInclude(SlingHttpServletRequest request, String url, Map<String, String> options, Writer out)
+            throws IOException {
+        final String cacheTtl = cacheTtl(options);
+        if (!isLazy(request, options)) {
+            getTemplate(template).write(new String[] { nextDivName(request), escapeEcmaScript(url), cacheTtl }, out);
+            return;
+        }
+        final String rootMargin = StringUtils.defaultIfBlank(options.get(ROOT_MARGIN_OPTION), DEFAULT_ROOT_MARGIN);
+        getTemplate(lazyTemplate).write(new String[] { nextDivName(request), escapeEcmaScript(url), cacheTtl,
+                escapeEcmaScript(rootMargin.trim()) }, out);
+    }
+
+    /**
+     * @return the freshness of the cached fragments in seconds, 0 to always request them again
+     *         after rendering the cached one, or {@value #NO_CACHE} if the client cache is disabled
+     */
+    private static String cacheTtl(Map<String, String> options) {
+        if (!Boolean.parseBoolean(options.get(CLIENT_CACHE_OPTION))) {
+            return NO_CACHE;
+        }
+        try {
+            return Integer.toString(Math.max(0, Integer.parseInt(StringUtils.trim(options.get(Configuration.TTL_OPTION)))));
+        } catch (NumberFormatException e) {
+            return "0";
         }
+    }
 
-        String divName;
-        synchronized (this) {
-            divName = "dynamic_include_filter_div_" + divId++;
+    private static boolean isLazy(SlingHttpServletRequest request, Map<String, String> options) {
+        if (!Boolean.parseBoolean(options.get(LAZY_OPTION))) {
+            return false;
+        }
+        final String eagerResourceTypes = options.get(EAGER_RESOURCE_TYPES_OPTION);
+        if (StringUtils.isBlank(eagerResourceTypes)) {
+            return true;
         }
+        final Resource resource = request.getResource();
+        final String resourceType = resource == null ? null : resource.getResourceType();
+        for (String eager : StringUtils.split(eagerResourceTypes, ',')) {
+            if (eager.trim().equals(resourceType)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        return template.replace(UUID_FIELD, divName).replace(URL_FIELD, StringEscapeUtils.escapeEcmaScript(url));
+    private static JsiTemplate getTemplate(JsiTemplate result) {
+        if (result == null) {
+            throw new IllegalStateException("JSI generator hasn't be initialized");
+        }
+        return result;
     }
 
-    private void readTemplateFromUrl(URL url) {
-        BufferedReader br = null;
-        try {
-            InputStream in = url.openStream();
-            br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
-            StringBuilder builder = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                builder.append(line).append('\n');
+    private static String[] values(SlingHttpServletRequest request, String url) {
+        return new String[] { nextDivName(request), escapeEcmaScript(url), NO_CACHE };
+    }
+
+    /**
+     * Generates the id of the include placeholder without any shared state. The ids are
+     * numbered per request and prefixed with a random string unique to the request, so they don't
+     * clash either when fragments of different requests end up on the same page.
+     */
+    static String nextDivName(SlingHttpServletRequest request) {
+        DivIds ids = request == null ? null : (DivIds) request.getAttribute(IDS_ATTRIBUTE);
+        if (ids == null) {
+            ids = new DivIds();
+            if (request != null) {
+                request.setAttribute(IDS_ATTRIBUTE, ids);
+            }
+        }
+        return ids.next();
+    }
+
+    /**
+     * Escapes the value like {@link StringEscapeUtils#escapeEcmaScript(String)}, in a single pass.
+     * Characters outside of the Basic Multilingual Plane are escaped as surrogate pairs. Values
+     * without any character to escape are returned as they are.
+     */
+    static String escapeEcmaScript(String value) {
+        StringBuilder escaped = null;
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 32 && c <= 0x7f && c != '\'' && c != '"' && c != '\\' && c != '/') {
+                continue;
             }
-            template = builder.toString();
-        } catch (UnsupportedEncodingException e) {
-            LOG.error("Error while reading template", e);
-        } catch (IOException e) {
-            LOG.error("Error while reading template", e);
-        } finally {
-            try {
-                if (br != null) {
-                    br.close();
-                }
-            } catch (Exception e) {
-                LOG.error("Error while closing reader", e);
+            if (escaped == null) {
+                escaped = new StringBuilder(value.length() + 16);
+            }
+            escaped.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '\'':
+                case '"':
+                case '\\':
+                case '/':
+                    escaped.append('\\').append(c);
+                    break;
+                case '\b':
+                    escaped.append("\\b");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\f':
+                    escaped.append("\\f");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                default:
+                    escaped.append("\\u").append(HEX_DIGITS[c >> 12]).append(HEX_DIGITS[(c >> 8) & 0xf])
+                            .append(HEX_DIGITS[(c >> 4) & 0xf]).append(HEX_DIGITS[c & 0xf]);
             }
         }
+        return escaped == null ? value : escaped.append(value, start, value.length()).toString();
     }
 
+    private static final class DivIds {
+
+        private final String prefix = DIV_PREFIX + Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36) + '_';
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        private String next() {
+            return prefix + counter.incrementAndGet();
+        }
+    }
 }
@@ -0,0 +1,156 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.generator.types;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Template precompiled into literal segments and placeholders. Only the placeholders with given
+ * names are replaced, any other {@code ${...}} sequence is kept as a literal. The output is built in
+ * a single array of the exact size, so writing it is a single call on the writer.
+ */
+final class JsiTemplate {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsiTemplate.class);
+
+    private final String[] literals;
+
+    private final int[] fields;
+
+    private final int literalsLength;
+
+    private JsiTemplate(String[] literals, int[] fields) {
+        this.literals = literals;
+        this.fields = fields;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalsLength = length;
+    }
+
+    /**
+     * @param template   the template text
+     * @param fieldNames names of the placeholders, e.g. {@code url} for {@code ${url}}; the
+     *                   values passed to {@link #write(String[], Writer)} use the same order
+     */
+    static JsiTemplate compile(String template, String... fieldNames) {
+        final List<String> literals = new ArrayList<>();
+        final List<Integer> fields = new ArrayList<>();
+        int start = 0;
+        int literalStart = 0;
+        while (true) {
+            final int open = template.indexOf("${", start);
+            if (open < 0) {
+                break;
+            }
+            final int close = template.indexOf('}', open + 2);
+            if (close < 0) {
+                break;
+            }
+            final int field = indexOf(fieldNames, template.substring(open + 2, close));
+            if (field < 0) {
+                start = open + 2;
+                continue;
+            }
+            literals.add(template.substring(literalStart, open));
+            fields.add(field);
+            start = literalStart = close + 1;
+        }
+        literals.add(template.substring(literalStart));
+        final int[] fieldArray = new int[fields.size()];
+        for (int i = 0; i < fieldArray.length; i++) {
+            fieldArray[i] = fields.get(i);
+        }
+        return new JsiTemplate(literals.toArray(new String[0]), fieldArray);
+    }
+
+    /**
+     * Reads and compiles a template from the bundle of the component.
+     *
+     * @return the template or {@code null} if it can't be read
+     */
+    static JsiTemplate load(ComponentContext ctx, String filename, String... fieldNames) {
+        final URL url = ctx.getBundleContext().getBundle().getResource(filename);
+        if (url == null) {
+            LOG.error("File " + filename + " not found in bundle.");
+            return null;
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+            final StringBuilder builder = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                builder.append(line).append('\n');
+            }
+            return compile(builder.toString(), fieldNames);
+        } catch (IOException e) {
+            LOG.error("Error while reading template", e);
+            return null;
+        }
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    void write(String[] values, Writer out) throws IOException {
+        final char[] result = render(values);
+        out.write(result, 0, result.length);
+    }
+
+    String toString(String[] values) {
+        return new String(render(values));
+    }
+
+    private char[] render(String[] values) {
+        int length = literalsLength;
+        for (int field : fields) {
+            length += values[field].length();
+        }
+        final char[] result = new char[length];
+        int position = append(literals[0], result, 0);
+        for (int i = 0; i < fields.length; i++) {
+            position = append(values[fields[i]], result, position);
+            position = append(literals[i + 1], result, position);
+        }
+        return result;
+    }
+
+    private static int append(String value, char[] target, int position) {
+        value.getChars(0, value.length(), target, position);
+        return position + value.length();
+    }
+}
@@ -0,0 +1,157 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.generator.types;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.dynamicinclude.api.IncludeGenerator;
+import org.osgi.service.component.annotations.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Nginx SSI include generator. Unlike Apache mod_include, nginx issues the subrequests of all the
+ * includes of a page in parallel, unless the {@value #WAIT_OPTION} option is enabled.
+ * <p>
+ * The {@value #STUB_OPTION} option names a block whose content is output instead of the fragment if
+ * it's empty or fails. With the {@value #STUB_CONTENT_OPTION} option the block is defined by the
+ * generator, once per request, before the first include using it.
+ */
+@Component
+public class NginxSsiGenerator implements IncludeGenerator {
+    private static final String GENERATOR_NAME = "NGINX-SSI";
+
+    static final String WAIT_OPTION = "wait";
+
+    static final String STUB_OPTION = "stub";
+
+    static final String STUB_CONTENT_OPTION = "stub-content";
+
+    private static final String DEFAULT_STUB = "sdi_stub";
+
+    private static final Pattern BLOCK_NAME = Pattern.compile("\\w+");
+
+    private static final String BLOCKS_ATTRIBUTE = NginxSsiGenerator.class.getName() + ".blocks";
+
+    private static final Logger LOG = LoggerFactory.getLogger(NginxSsiGenerator.class);
+
+    @Override
+    public String getType() {
+        return GENERATOR_NAME;
+    }
+
+    @Override
+    public String getInclude(SlingHttpServletRequest request, String url) {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeInclude(request, url, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public void writeInclude(SlingHttpServletRequest request, String url, Writer out) throws IOException {
+        out.write("<!--# include virtual=\"");
+        writeEscapedForNginx(url, out);
+        out.write("\" -->");
+    }
+
+    @Override
+    public void writeInclude(SlingHttpServletRequest request, String url, Map<String, String> options, Writer out)
+            throws IOException {
+        final String stub = getStub(options);
+        if (stub != null && options.containsKey(STUB_CONTENT_OPTION)) {
+            writeBlock(request, stub, options.get(STUB_CONTENT_OPTION), out);
+        }
+        out.write("<!--# include virtual=\"");
+        writeEscapedForNginx(url, out);
+        out.write('"');
+        if (isEnabled(options.get(WAIT_OPTION))) {
+            out.write(" wait=\"yes\"");
+        }
+        if (stub != null) {
+            out.write(" stub=\"");
+            out.write(stub);
+            out.write('"');
+        }
+        out.write(" -->");
+    }
+
+    private static String getStub(Map<String, String> options) {
+        String stub = options.get(STUB_OPTION);
+        if (StringUtils.isEmpty(stub)) {
+            stub = options.containsKey(STUB_CONTENT_OPTION) ? DEFAULT_STUB : null;
+        } else if (!BLOCK_NAME.matcher(stub).matches()) {
+            LOG.warn("Invalid nginx SSI block name: {}", stub);
+            stub = null;
+        }
+        return stub;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeBlock(SlingHttpServletRequest request, String name, String content, Writer out)
+            throws IOException {
+        Set<String> blocks = request == null ? null : (Set<String>) request.getAttribute(BLOCKS_ATTRIBUTE);
+        if (blocks == null) {
+            blocks = new HashSet<>();
+            if (request != null) {
+                request.setAttribute(BLOCKS_ATTRIBUTE, blocks);
+            }
+        }
+        if (blocks.add(name)) {
+            out.write("<!--# block name=\"");
+            out.write(name);
+            out.write("\" -->");
+            out.write(content);
+            out.write("<!--# endblock -->");
+        }
+    }
+
+    private static boolean isEnabled(String value) {
+        return "yes".equalsIgnoreCase(value) || Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Writes the url escaping $ to \$, as nginx expands variables in the parameters, and
+     * percent-encoding the quotes.
+     */
+    private static void writeEscapedForNginx(String url, Writer out) throws IOException {
+        int start = 0;
+        for (int i = 0; i < url.length(); i++) {
+            final char c = url.charAt(i);
+            if (c == '$' || c == '"') {
+                out.write(url, start, i - start);
+                out.write(c == '$' ? "\\$" : "%22");
+                start = i + 1;
+            }
+        }
+        out.write(url, start, url.length() - start);
+    }
+}
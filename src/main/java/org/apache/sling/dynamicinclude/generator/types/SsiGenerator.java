@@ -19,6 +19,10 @@
 
 package org.apache.sling.dynamicinclude.generator.types;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.dynamicinclude.api.IncludeGenerator;
 import org.osgi.service.component.annotations.Component;
@@ -37,21 +41,37 @@ public class SsiGenerator implements IncludeGenerator {
 
     @Override
     public String getInclude(SlingHttpServletRequest request, String url) {
-        StringBuffer buf = new StringBuffer();
-        buf.append("<!--#include virtual=\"");
-        buf.append(escapeForApache(url));
-        buf.append("\" -->");
-        return buf.toString();
+        final StringWriter writer = new StringWriter();
+        try {
+            writeInclude(request, url, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public void writeInclude(SlingHttpServletRequest request, String url, Writer out) throws IOException {
+        out.write("<!--#include virtual=\"");
+        writeEscapedForApache(url, out);
+        out.write("\" -->");
     }
 
     /**
-     * Escapes $ to \$
+     * Writes the url escaping $ to \$
      * 
      * @param url
      *            url to escape
-     * @return escaped url
+     * @param out
+     *            writer to write the escaped url to
      */
-    private Object escapeForApache(String url) {
-        return url.replace("$", "\\$");
+    private static void writeEscapedForApache(String url, Writer out) throws IOException {
+        int start = 0;
+        for (int i = url.indexOf('$'); i >= 0; i = url.indexOf('$', start)) {
+            out.write(url, start, i - start);
+            out.write("\\$");
+            start = i + 1;
+        }
+        out.write(url, start, url.length() - start);
     }
 }
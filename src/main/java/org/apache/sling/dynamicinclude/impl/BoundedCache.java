@@ -0,0 +1,134 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe cache holding about the configured number of entries. Lookups don't lock: the
+ * entries are kept in a {@link ConcurrentHashMap} and a lookup only marks the entry as used. Once
+ * the cache grows over its maximum size, a single thread sweeps the entries like a clock, evicting
+ * the ones which haven't been used since they were added or since the previous sweep and
+ * unmarking the others, until the cache is back to 7/8 of its maximum size. So the least recently
+ * used entries are evicted first, approximately, and the cache may briefly hold a few entries more
+ * while a sweep is running. A cache with a maximum size of 0 or less doesn't store anything.
+ */
+public final class BoundedCache<K, V> {
+
+    private final int maxSize;
+
+    private final int sweepSize;
+
+    private final ConcurrentMap<K, Node<V>> entries = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.sweepSize = maxSize - Math.max(1, maxSize / 8);
+    }
+
+    public V get(K key) {
+        final Node<V> node = entries.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (!node.used) {
+            node.used = true;
+        }
+        return node.value;
+    }
+
+    public void put(K key, V value) {
+        if (maxSize <= 0) {
+            return;
+        }
+        entries.put(key, new Node<>(value));
+        if (entries.size() > maxSize) {
+            sweep();
+        }
+    }
+
+    private void sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            while (entries.size() > sweepSize) {
+                final Iterator<Node<V>> it = entries.values().iterator();
+                while (it.hasNext() && entries.size() > sweepSize) {
+                    final Node<V> node = it.next();
+                    if (node.used) {
+                        node.used = false;
+                    } else {
+                        it.remove();
+                        evictions.increment();
+                    }
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private static final class Node<V> {
+
+        private final V value;
+
+        // only a hint for the sweep, so a lost update is harmless
+        private volatile boolean used;
+
+        private Node(V value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.osgi.service.component.annotations.ReferenceCardinality.MULTIPLE;
+import static org.osgi.service.component.annotations.ReferencePolicy.DYNAMIC;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.dynamicinclude.Configuration;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Keeps the rendered include responses in memory, for the configurations enabling the fragment
+ * cache. Entries are fresh for the component TTL and may be served for the stale-while-revalidate
+ * time after that, while a single request renders them again. The cache is bounded by the total
+ * size of the cached content, evicting the least recently used entries. It's cleared whenever a
+ * configuration is bound, updated or unbound.
+ */
+@Component(service = FragmentCache.class, property = Constants.SERVICE_VENDOR + "=The Apache Software Foundation")
+@Designate(ocd = FragmentCache.Config.class)
+public class FragmentCache {
+
+    @ObjectClassDefinition(name = "Apache Sling Dynamic Include - Fragment Cache")
+    public @interface Config {
+        @AttributeDefinition(name = "Cache size", description = "Maximum total size of the cached fragments (in bytes), 0 disables the cache")
+        long include$_$filter_fragment$_$cache_max$_$size() default 16777216;
+
+        @AttributeDefinition(name = "Entry size", description = "Maximum size of a single cached fragment (in bytes), larger fragments aren't cached nor shared by collapsed requests")
+        long include$_$filter_fragment$_$cache_max$_$entry$_$size() default 262144;
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private long maxSize;
+
+    private long maxEntrySize;
+
+    private long size;
+
+    @Activate
+    public void activate(Config cfg) {
+        synchronized (entries) {
+            maxSize = cfg.include$_$filter_fragment$_$cache_max$_$size();
+            maxEntrySize = cfg.include$_$filter_fragment$_$cache_max$_$entry$_$size();
+            clear();
+        }
+    }
+
+    /**
+     * @return maximum size of a single cached or collapsed fragment, in bytes
+     */
+    public long getMaxEntrySize() {
+        synchronized (entries) {
+            return maxEntrySize;
+        }
+    }
+
+    /**
+     * Returns the cached response, either fresh or in its stale-while-revalidate time.
+     *
+     * @param now current time in milliseconds
+     * @return the cached response or {@code null}
+     */
+    public Entry get(String key, long now) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.staleUntil <= now) {
+                remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the response, unless it's larger than the maximum entry size.
+     *
+     * @return true if the response was cached
+     */
+    public boolean put(String key, Entry entry) {
+        synchronized (entries) {
+            if (entry.getSize() > Math.min(maxSize, maxEntrySize)) {
+                return false;
+            }
+            remove(key);
+            entries.put(key, entry);
+            size += entry.getSize();
+            final Iterator<Entry> eldest = entries.values().iterator();
+            while (size > maxSize && eldest.hasNext()) {
+                size -= eldest.next().getSize();
+                eldest.remove();
+                evictions.increment();
+            }
+            return true;
+        }
+    }
+
+    private void remove(String key) {
+        final Entry removed = entries.remove(key);
+        if (removed != null) {
+            size -= removed.getSize();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    @Reference(name = "configs", service = Configuration.class, cardinality = MULTIPLE, policy = DYNAMIC,
+            updated = "updatedConfigs")
+    void bindConfigs(final Configuration config) {
+        clear();
+    }
+
+    void updatedConfigs(final Configuration config) {
+        clear();
+    }
+
+    void unbindConfigs(final Configuration config) {
+        clear();
+    }
+
+    /**
+     * @return number of requests served from the cache, including the stale ones
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of requests which had to be rendered
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of fragments evicted to keep the cache size
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return total size of the cached fragments, in bytes
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * Cached response, with the content encoded in its character encoding.
+     */
+    public static final class Entry {
+
+        private final String contentType;
+
+        private final String characterEncoding;
+
+        private final Map<String, List<String>> headers;
+
+        private final byte[] content;
+
+        private final long created;
+
+        private final long expires;
+
+        private final long staleUntil;
+
+        private final AtomicBoolean revalidating = new AtomicBoolean();
+
+        Entry(String contentType, String characterEncoding, Map<String, List<String>> headers, byte[] content,
+                long created, int ttl, int staleWhileRevalidate) {
+            this.contentType = contentType;
+            this.characterEncoding = characterEncoding;
+            this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+            this.content = content;
+            this.created = created;
+            this.expires = created + ttl * 1000L;
+            this.staleUntil = expires + Math.max(0, staleWhileRevalidate) * 1000L;
+        }
+
+        public long getSize() {
+            return content.length;
+        }
+
+        public boolean isFresh(long now) {
+            return now < expires;
+        }
+
+        /**
+         * Marks the stale entry as being rendered again, so the other requests keep serving it.
+         *
+         * @return true if the calling request should render the entry again
+         */
+        public boolean startRevalidation() {
+            return revalidating.compareAndSet(false, true);
+        }
+
+        /**
+         * Lets another request render the entry again, if the revalidation couldn't be cached.
+         */
+        public void endRevalidation() {
+            revalidating.set(false);
+        }
+
+        /**
+         * Writes the cached response, with an {@code Age} header telling how long it's been cached.
+         */
+        public void writeTo(HttpServletResponse response, long now) throws IOException {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                boolean first = true;
+                for (String value : header.getValue()) {
+                    if (first) {
+                        response.setHeader(header.getKey(), value);
+                        first = false;
+                    } else {
+                        response.addHeader(header.getKey(), value);
+                    }
+                }
+            }
+            response.setHeader("Age", Long.toString(Math.max(0, now - created) / 1000));
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            if (characterEncoding != null) {
+                response.setCharacterEncoding(characterEncoding);
+            }
+            response.setContentLength(content.length);
+            response.getOutputStream().write(content);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.engine.SlingRequestProcessor;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders include urls on the server side, each as a request of its own processed by the
+ * {@link SlingRequestProcessor} into a {@link BufferedFragmentResponse}. Fragments can be rendered
+ * in the background, with a copy of the request state and a clone of the request resolver, both
+ * made in the request thread, as requests and resolvers can't be shared between threads. Virtual threads are used if the JVM supports them. The number of fragments rendered in
+ * the background is bounded; fragments over the limit are rendered right away in the calling
+ * thread, so nested includes can't wait for each other.
+ */
+@Component(service = FragmentRenderer.class, property = Constants.SERVICE_VENDOR + "=The Apache Software Foundation")
+@Designate(ocd = FragmentRenderer.Config.class)
+public class FragmentRenderer {
+
+    @ObjectClassDefinition(name = "Apache Sling Dynamic Include - Fragment Renderer")
+    public @interface Config {
+        @AttributeDefinition(name = "Maximum concurrency", description = "Maximum number of fragments rendered in the background at the same time, over all requests")
+        int include$_$filter_inline_max$_$concurrency() default 16;
+
+        @AttributeDefinition(name = "Virtual threads", description = "Render the fragments with virtual threads, if the JVM supports them")
+        boolean include$_$filter_inline_virtual$_$threads() default true;
+
+        @AttributeDefinition(name = "Timeout", description = "Time to wait for the fragments of a request rendered in the background (in milliseconds)")
+        long include$_$filter_inline_timeout() default 5000;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(FragmentRenderer.class);
+
+    @Reference
+    private SlingRequestProcessor requestProcessor;
+
+    private long timeout;
+
+    private Semaphore permits;
+
+    private ExecutorService executor;
+
+    @Activate
+    public void activate(Config cfg) {
+        timeout = cfg.include$_$filter_inline_timeout();
+        final int maxConcurrency = Math.max(0, cfg.include$_$filter_inline_max$_$concurrency());
+        permits = new Semaphore(maxConcurrency);
+        if (maxConcurrency == 0) {
+            executor = null;
+        } else if (cfg.include$_$filter_inline_virtual$_$threads() && (executor = newVirtualThreadExecutor()) != null) {
+            LOG.debug("Rendering fragments with virtual threads");
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(0, maxConcurrency, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), r -> {
+                final Thread thread = new Thread(r, "sling-dynamic-include-renderer-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Virtual threads are available since Java 21, while the bundle is compiled for older versions.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Virtual threads aren't available", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return time to wait for the fragments rendered in the background, in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Renders the include url in the background if possible, in the calling thread otherwise. The
+     * fragment request and the clone of the resolver are created in the calling thread, which owns
+     * the request and its resolver. Cancelling the returned future closes the clone if the
+     * fragment isn't being rendered yet.
+     *
+     * @return the rendered fragment, the future returns {@code null} if it can't be rendered
+     */
+    public Future<String> submit(HttpServletRequest request, ResourceResolver resolver, String url) {
+        final FragmentRequest fragmentRequest = newRequest(request, url);
+        if (fragmentRequest == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final ExecutorService currentExecutor = executor;
+        if (currentExecutor != null && permits.tryAcquire()) {
+            final ResourceResolver clone;
+            try {
+                clone = resolver.clone(null);
+            } catch (LoginException | RuntimeException e) {
+                LOG.warn("Can't clone the resolver to render fragment {} in the background", url, e);
+                permits.release();
+                return CompletableFuture.completedFuture(render(fragmentRequest, resolver));
+            }
+            final RenderTask task = new RenderTask(() -> render(fragmentRequest, clone), clone);
+            try {
+                currentExecutor.execute(task);
+                return task;
+            } catch (RejectedExecutionException e) {
+                task.cancel(false);
+            }
+        }
+        return CompletableFuture.completedFuture(render(fragmentRequest, resolver));
+    }
+
+    /**
+     * Waits for the fragments rendered in the background to stop, also the cancelled ones, so
+     * none of them is still running once the request completes. Waits at most the timeout.
+     *
+     * @param fragments the futures returned by {@link #submit(HttpServletRequest, ResourceResolver, String)}
+     */
+    public void join(Collection<Future<String>> fragments) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (Future<String> fragment : fragments) {
+            if (!(fragment instanceof RenderTask)) {
+                continue;
+            }
+            try {
+                if (!((RenderTask) fragment).awaitTermination(deadline - System.nanoTime())) {
+                    LOG.warn("Fragment still rendering {} ms after it was given up", timeout);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Renders the include url in the calling thread.
+     *
+     * @return the rendered fragment or {@code null} if it can't be rendered
+     */
+    public String render(HttpServletRequest request, ResourceResolver resolver, String url) {
+        final FragmentRequest fragmentRequest = newRequest(request, url);
+        return fragmentRequest == null ? null : render(fragmentRequest, resolver);
+    }
+
+    /**
+     * Creates the request rendering the include url, with a copy of the state of the original
+     * request. It has to be called in the thread owning the original request.
+     *
+     * @return the fragment request or {@code null} if the url can't be rendered on the server side
+     */
+    public FragmentRequest newRequest(HttpServletRequest request, String url) {
+        if (!StringUtils.startsWith(url, "/") || url.startsWith("//")) {
+            LOG.warn("Can't render {} on the server side, it's not a path", url);
+            return null;
+        }
+        return new FragmentRequest(request, decodePath(request, url), url);
+    }
+
+    /**
+     * Renders a fragment request created by {@link #newRequest(HttpServletRequest, String)}.
+     *
+     * @return the rendered fragment or {@code null} if it can't be rendered
+     */
+    public String render(FragmentRequest fragmentRequest, ResourceResolver resolver) {
+        final BufferedFragmentResponse fragmentResponse = new BufferedFragmentResponse();
+        final String url = fragmentRequest.getRequestURI();
+        try {
+            requestProcessor.processRequest(fragmentRequest, fragmentResponse, resolver);
+            if (!fragmentResponse.isSuccessful()) {
+                LOG.debug("Fragment {} rendered with status {}", url, fragmentResponse.getStatus());
+                return null;
+            }
+            return fragmentResponse.getContent();
+        } catch (ServletException | IOException | RuntimeException e) {
+            LOG.warn("Can't render fragment {}", url, e);
+            return null;
+        }
+    }
+
+    /**
+     * Fragment rendered in the background with its own resolver. The resolver is closed and the
+     * permit released before the result is set, or right away if the task is cancelled before it
+     * starts.
+     */
+    private final class RenderTask extends FutureTask<String> {
+
+        private final ResourceResolver resolver;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private final CountDownLatch terminated = new CountDownLatch(1);
+
+        private RenderTask(Callable<String> render, ResourceResolver resolver) {
+            super(render);
+            this.resolver = resolver;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                super.run();
+            } finally {
+                release();
+                terminated.countDown();
+            }
+        }
+
+        @Override
+        protected void set(String fragment) {
+            release();
+            super.set(fragment);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            release();
+            super.setException(t);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (claimed.compareAndSet(false, true)) {
+                release();
+                terminated.countDown();
+            }
+            return cancelled;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                try {
+                    resolver.close();
+                } finally {
+                    permits.release();
+                }
+            }
+        }
+
+        private boolean awaitTermination(long nanos) throws InterruptedException {
+            return terminated.await(Math.max(0, nanos), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Turns the include url into the path the fragment request is resolved with: the context path
+     * added by the mapping is removed and the percent-encoding is decoded.
+     */
+    public static String decodePath(HttpServletRequest request, String url) {
+        String path = url;
+        final String contextPath = request.getContextPath();
+        if (StringUtils.isNotEmpty(contextPath) && path.startsWith(contextPath + "/")) {
+            path = path.substring(contextPath.length());
+        }
+        if (path.indexOf('%') < 0) {
+            return path;
+        }
+        try {
+            return URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8.name());
+        } catch (IllegalArgumentException | IOException e) {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,583 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.security.Principal;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpUpgradeHandler;
+import javax.servlet.http.Part;
+
+/**
+ * Request for rendering an include url on the server side, as a GET request of its own. The
+ * headers (including cookies and authentication), the connection details and the existing session
+ * are copied from the original request when the fragment request is created, in the request
+ * thread. The fragment request doesn't keep the original request, so a fragment rendered in the
+ * background can't read or change it while it's processed, or after it completed. The path,
+ * parameters, attributes and character encoding are the ones of the include; it has no body,
+ * can't create a session and can't authenticate.
+ */
+public final class FragmentRequest implements HttpServletRequest {
+
+    // marks the fragment requests, also once wrapped by Sling
+    private static final String ATTRIBUTE = FragmentRequest.class.getName();
+
+    private static final String CONTENT_LENGTH = "content-length";
+
+    private static final String CONTENT_TYPE = "content-type";
+
+    private final String path;
+
+    private final String requestUri;
+
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    private final Map<String, List<String>> headers = new LinkedHashMap<>();
+
+    private final Cookie[] cookies;
+
+    private final List<Locale> locales;
+
+    private final String scheme;
+
+    private final String serverName;
+
+    private final int serverPort;
+
+    private final boolean secure;
+
+    private final String protocol;
+
+    private final String contextPath;
+
+    private final String remoteAddr;
+
+    private final String remoteHost;
+
+    private final int remotePort;
+
+    private final String localAddr;
+
+    private final String localName;
+
+    private final int localPort;
+
+    private final String authType;
+
+    private final String remoteUser;
+
+    private final Principal userPrincipal;
+
+    private final ServletContext servletContext;
+
+    private final HttpSession session;
+
+    private final String requestedSessionId;
+
+    private final boolean requestedSessionIdValid;
+
+    private final boolean requestedSessionIdFromCookie;
+
+    private final boolean requestedSessionIdFromUrl;
+
+    private volatile String characterEncoding;
+
+    /**
+     * @param request    the original request
+     * @param path       the decoded path of the include, used to resolve the resource
+     * @param requestUri the include url as it was generated
+     */
+    public FragmentRequest(HttpServletRequest request, String path, String requestUri) {
+        this.path = path;
+        this.requestUri = requestUri;
+        attributes.put(ATTRIBUTE, Boolean.TRUE);
+        final Enumeration<String> names = request.getHeaderNames();
+        while (names != null && names.hasMoreElements()) {
+            final String name = names.nextElement();
+            final String key = name.toLowerCase(Locale.ENGLISH);
+            if (CONTENT_LENGTH.equals(key) || CONTENT_TYPE.equals(key)) {
+                continue;
+            }
+            final List<String> values = headers.computeIfAbsent(key, k -> new ArrayList<>(1));
+            final Enumeration<String> headerValues = request.getHeaders(name);
+            while (headerValues != null && headerValues.hasMoreElements()) {
+                values.add(headerValues.nextElement());
+            }
+        }
+        this.cookies = request.getCookies();
+        final Enumeration<Locale> requestLocales = request.getLocales();
+        this.locales = requestLocales == null ? Collections.<Locale>emptyList() : Collections.list(requestLocales);
+        this.scheme = request.getScheme();
+        this.serverName = request.getServerName();
+        this.serverPort = request.getServerPort();
+        this.secure = request.isSecure();
+        this.protocol = request.getProtocol();
+        this.contextPath = request.getContextPath();
+        this.remoteAddr = request.getRemoteAddr();
+        this.remoteHost = request.getRemoteHost();
+        this.remotePort = request.getRemotePort();
+        this.localAddr = request.getLocalAddr();
+        this.localName = request.getLocalName();
+        this.localPort = request.getLocalPort();
+        this.authType = request.getAuthType();
+        this.remoteUser = request.getRemoteUser();
+        this.userPrincipal = request.getUserPrincipal();
+        this.servletContext = request.getServletContext();
+        this.session = request.getSession(false);
+        this.requestedSessionId = request.getRequestedSessionId();
+        this.requestedSessionIdValid = request.isRequestedSessionIdValid();
+        this.requestedSessionIdFromCookie = request.isRequestedSessionIdFromCookie();
+        this.requestedSessionIdFromUrl = request.isRequestedSessionIdFromURL();
+    }
+
+    /**
+     * @return true if the request is the one of a fragment rendered on the server side
+     */
+    public static boolean isFragment(ServletRequest request) {
+        return request.getAttribute(ATTRIBUTE) != null;
+    }
+
+    @Override
+    public String getMethod() {
+        return "GET";
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        return DispatcherType.REQUEST;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return path;
+    }
+
+    @Override
+    public String getPathTranslated() {
+        return null;
+    }
+
+    @Override
+    public String getServletPath() {
+        return "";
+    }
+
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return getContextPath() + requestUri;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        final StringBuffer url = new StringBuffer();
+        url.append(getScheme()).append("://").append(getServerName());
+        if (getServerPort() > 0 && !isDefaultPort(getScheme(), getServerPort())) {
+            url.append(':').append(getServerPort());
+        }
+        return url.append(getRequestURI());
+    }
+
+    private static boolean isDefaultPort(String scheme, int port) {
+        return ("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443);
+    }
+
+    @Override
+    public String getQueryString() {
+        return null;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        return null;
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.emptyEnumeration();
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return null;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (value == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        final List<String> values = headers.get(name.toLowerCase(Locale.ENGLISH));
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        final List<String> values = headers.get(name.toLowerCase(Locale.ENGLISH));
+        return values == null ? Collections.<String>emptyEnumeration() : Collections.enumeration(values);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        final String value = getHeader(name);
+        return value == null ? -1 : Integer.parseInt(value);
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        final String value = getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not a date header: " + name, e);
+        }
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        return cookies == null ? null : cookies.clone();
+    }
+
+    @Override
+    public Locale getLocale() {
+        return locales.isEmpty() ? Locale.getDefault() : locales.get(0);
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+        return Collections.enumeration(locales.isEmpty() ? Collections.singletonList(Locale.getDefault()) : locales);
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    @Override
+    public void setCharacterEncoding(String env) {
+        characterEncoding = env;
+    }
+
+    @Override
+    public int getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return -1;
+    }
+
+    @Override
+    public String getContentType() {
+        return null;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        return new ServletInputStream() {
+            @Override
+            public int read() {
+                return -1;
+            }
+
+            @Override
+            public boolean isFinished() {
+                return true;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public BufferedReader getReader() {
+        return new BufferedReader(new StringReader(""));
+    }
+
+    @Override
+    public Collection<Part> getParts() throws ServletException {
+        throw new ServletException("Not a multipart request");
+    }
+
+    @Override
+    public Part getPart(String name) throws ServletException {
+        throw new ServletException("Not a multipart request");
+    }
+
+    @Override
+    public String getScheme() {
+        return scheme;
+    }
+
+    @Override
+    public String getServerName() {
+        return serverName;
+    }
+
+    @Override
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return secure;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return remoteHost;
+    }
+
+    @Override
+    public int getRemotePort() {
+        return remotePort;
+    }
+
+    @Override
+    public String getLocalAddr() {
+        return localAddr;
+    }
+
+    @Override
+    public String getLocalName() {
+        return localName;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    /**
+     * The Servlet container can't dispatch a request it doesn't know; includes of the fragment
+     * are dispatched by Sling.
+     */
+    @Override
+    public RequestDispatcher getRequestDispatcher(String path) {
+        return null;
+    }
+
+    @Override
+    public String getRealPath(String path) {
+        return servletContext == null ? null : servletContext.getRealPath(path);
+    }
+
+    @Override
+    public String getAuthType() {
+        return authType;
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return remoteUser;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return userPrincipal;
+    }
+
+    /**
+     * The roles of the Servlet container aren't copied, Sling authorizes with the resolver of the
+     * fragment.
+     */
+    @Override
+    public boolean isUserInRole(String role) {
+        return false;
+    }
+
+    @Override
+    public boolean authenticate(HttpServletResponse response) {
+        return userPrincipal != null;
+    }
+
+    @Override
+    public void login(String username, String password) throws ServletException {
+        throw new ServletException("Can't login in a fragment request");
+    }
+
+    @Override
+    public void logout() throws ServletException {
+        throw new ServletException("Can't logout in a fragment request");
+    }
+
+    /**
+     * @return the session of the original request, sessions aren't created for fragments
+     */
+    @Override
+    public HttpSession getSession(boolean create) {
+        return session;
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return session;
+    }
+
+    @Override
+    public String changeSessionId() {
+        throw new IllegalStateException("Can't change the session id in a fragment request");
+    }
+
+    @Override
+    public String getRequestedSessionId() {
+        return requestedSessionId;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdValid() {
+        return requestedSessionIdValid;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromCookie() {
+        return requestedSessionIdFromCookie;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromURL() {
+        return requestedSessionIdFromUrl;
+    }
+
+    @Override
+    @Deprecated
+    public boolean isRequestedSessionIdFromUrl() {
+        return requestedSessionIdFromUrl;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        throw new IllegalStateException("Fragment requests don't support async processing");
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+        throw new IllegalStateException("Fragment requests don't support async processing");
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return false;
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        throw new IllegalStateException("Fragment requests don't support async processing");
+    }
+
+    @Override
+    public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) throws ServletException {
+        throw new ServletException("Fragment requests can't be upgraded");
+    }
+}
@@ -0,0 +1,169 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.osgi.service.component.annotations.ReferenceCardinality.MULTIPLE;
+import static org.osgi.service.component.annotations.ReferencePolicy.DYNAMIC;
+
+import java.util.Objects;
+
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.dynamicinclude.Configuration;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Keeps the include urls built by the include filter. The url of an include depends only on the
+ * configuration and on the path info, resource type and synthetic flag of the included resource,
+ * so components shared by many pages (like headers and footers) are built once. For
+ * configurations rewriting the path the url is kept before it's mapped, as the mapping depends on
+ * the request. The cache is cleared whenever a configuration is bound, updated or unbound.
+ */
+@Component(service = IncludeUrlCache.class, property = Constants.SERVICE_VENDOR + "=The Apache Software Foundation")
+@Designate(ocd = IncludeUrlCache.Config.class)
+public class IncludeUrlCache {
+
+    @ObjectClassDefinition(name = "Apache Sling Dynamic Include - Include URL Cache")
+    public @interface Config {
+        @AttributeDefinition(name = "Cache size", description = "Maximum number of cached include urls, 0 disables the cache")
+        int include$_$filter_url$_$cache_size() default 1000;
+    }
+
+    private volatile BoundedCache<Key, String> urls = new BoundedCache<>(0);
+
+    @Activate
+    public void activate(Config cfg) {
+        urls = new BoundedCache<>(cfg.include$_$filter_url$_$cache_size());
+    }
+
+    public String get(Key key) {
+        return urls.get(key);
+    }
+
+    public void put(Key key, String url) {
+        urls.put(key, url);
+    }
+
+    @Reference(name = "configs", service = Configuration.class, cardinality = MULTIPLE, policy = DYNAMIC,
+            updated = "updatedConfigs")
+    void bindConfigs(final Configuration config) {
+        urls.clear();
+    }
+
+    void updatedConfigs(final Configuration config) {
+        urls.clear();
+    }
+
+    void unbindConfigs(final Configuration config) {
+        urls.clear();
+    }
+
+    /**
+     * @return number of include urls found in the cache
+     */
+    public long getHitCount() {
+        return urls.getHitCount();
+    }
+
+    /**
+     * @return number of include urls which had to be built
+     */
+    public long getMissCount() {
+        return urls.getMissCount();
+    }
+
+    /**
+     * @return number of include urls evicted to keep the cache size
+     */
+    public long getEvictionCount() {
+        return urls.getEvictionCount();
+    }
+
+    /**
+     * @return number of cached include urls
+     */
+    public int getSize() {
+        return urls.size();
+    }
+
+    /**
+     * Inputs of the include url. The configuration is compared by identity, as a changed
+     * configuration is a new component instance.
+     */
+    public static final class Key {
+
+        private final Configuration config;
+
+        private final String resourcePath;
+
+        private final String selectorString;
+
+        private final String extension;
+
+        private final String suffix;
+
+        private final String resourceType;
+
+        private final boolean synthetic;
+
+        private final int hashCode;
+
+        public Key(Configuration config, RequestPathInfo pathInfo, String resourceType, boolean synthetic) {
+            this.config = config;
+            this.resourcePath = pathInfo.getResourcePath();
+            this.selectorString = pathInfo.getSelectorString();
+            this.extension = pathInfo.getExtension();
+            this.suffix = pathInfo.getSuffix();
+            this.resourceType = resourceType;
+            this.synthetic = synthetic;
+            this.hashCode = Objects.hash(System.identityHashCode(config), resourcePath, selectorString, extension,
+                    suffix, resourceType, synthetic);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return config == other.config
+                    && synthetic == other.synthetic
+                    && hashCode == other.hashCode
+                    && Objects.equals(resourcePath, other.resourcePath)
+                    && Objects.equals(selectorString, other.selectorString)
+                    && Objects.equals(extension, other.extension)
+                    && Objects.equals(suffix, other.suffix)
+                    && Objects.equals(resourceType, other.resourceType);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.util.Objects;
+
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Keeps the results of {@link org.apache.sling.api.resource.ResourceResolver#map(javax.servlet.http.HttpServletRequest, String)}
+ * for the include urls of the configurations rewriting the path. The mapping depends on the
+ * scheme, host, port and context path of the request, so the results are kept per virtual host.
+ * The cache is cleared whenever the resource resolver reports a change of the mappings (including
+ * aliases and vanity paths). Lookups don't lock, as the cache is consulted for every rewritten
+ * include; concurrent misses for the same url may map it more than once.
+ */
+@Component(service = { MappingCache.class, EventHandler.class },
+    property = {
+        EventConstants.EVENT_TOPIC + "=" + SlingConstants.TOPIC_RESOURCE_RESOLVER_MAPPING_CHANGED,
+        Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
+    })
+@Designate(ocd = MappingCache.Config.class)
+public class MappingCache implements EventHandler {
+
+    @ObjectClassDefinition(name = "Apache Sling Dynamic Include - Mapping Cache")
+    public @interface Config {
+        @AttributeDefinition(name = "Cache size", description = "Maximum number of cached mapped urls, 0 disables the cache")
+        int include$_$filter_mapping$_$cache_size() default 1000;
+    }
+
+    private volatile BoundedCache<Key, String> mappings = new BoundedCache<>(0);
+
+    @Activate
+    public void activate(Config cfg) {
+        mappings = new BoundedCache<>(cfg.include$_$filter_mapping$_$cache_size());
+    }
+
+    /**
+     * Maps the url with the resolver of the request, unless it has been mapped for the same virtual
+     * host before.
+     *
+     * @param request the request to map the url for
+     * @param url     the url to map
+     * @return the mapped url
+     */
+    public String map(SlingHttpServletRequest request, String url) {
+        final Key key = new Key(request, url);
+        String mapped = mappings.get(key);
+        if (mapped == null) {
+            mapped = request.getResourceResolver().map(request, url);
+            if (mapped != null) {
+                mappings.put(key, mapped);
+            }
+        }
+        return mapped;
+    }
+
+    @Override
+    public void handleEvent(Event event) {
+        mappings.clear();
+    }
+
+    /**
+     * @return number of urls found in the cache
+     */
+    public long getHitCount() {
+        return mappings.getHitCount();
+    }
+
+    /**
+     * @return number of urls which had to be mapped
+     */
+    public long getMissCount() {
+        return mappings.getMissCount();
+    }
+
+    /**
+     * @return number of urls evicted to keep the cache size
+     */
+    public long getEvictionCount() {
+        return mappings.getEvictionCount();
+    }
+
+    /**
+     * @return number of cached urls
+     */
+    public int getSize() {
+        return mappings.size();
+    }
+
+    private static final class Key {
+
+        private final String scheme;
+
+        private final String serverName;
+
+        private final int serverPort;
+
+        private final String contextPath;
+
+        private final String url;
+
+        private final int hashCode;
+
+        private Key(SlingHttpServletRequest request, String url) {
+            this.scheme = request.getScheme();
+            this.serverName = request.getServerName();
+            this.serverPort = request.getServerPort();
+            this.contextPath = request.getContextPath();
+            this.url = url;
+            this.hashCode = Objects.hash(scheme, serverName, serverPort, contextPath, url);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return serverPort == other.serverPort
+                    && hashCode == other.hashCode
+                    && Objects.equals(url, other.url)
+                    && Objects.equals(serverName, other.serverName)
+                    && Objects.equals(scheme, other.scheme)
+                    && Objects.equals(contextPath, other.contextPath);
+        }
+    }
+}
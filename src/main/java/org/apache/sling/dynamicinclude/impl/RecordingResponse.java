@@ -0,0 +1,392 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+
+/**
+ * Response passing everything through to the wrapped one, while recording the headers and the
+ * content, so it can be cached as a {@link FragmentCache.Entry}. Only successful responses without
+ * cookies are recorded, up to the given content size. Responses marked as private, no-store or
+ * no-cache, or varying on headers the cache key doesn't cover, aren't recorded either.
+ */
+public final class RecordingResponse extends SlingHttpServletResponseWrapper {
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    private static final String SET_COOKIE = "Set-Cookie";
+
+    private static final String CACHE_CONTROL = "Cache-Control";
+
+    private static final String VARY = "Vary";
+
+    private static final String[] UNCACHEABLE_DIRECTIVES = { "private", "no-store", "no-cache" };
+
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    private final long maxSize;
+
+    private final Set<String> keyHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    private boolean recordable = true;
+
+    private String contentType;
+
+    private String characterEncoding;
+
+    private CharArrayWriter chars;
+
+    private PrintWriter writer;
+
+    private ByteArrayOutputStream bytes;
+
+    private ServletOutputStream outputStream;
+
+    /**
+     * @param response   the response to pass everything through to
+     * @param maxSize    maximum size of the recorded content, in bytes
+     * @param keyHeaders the request headers the cache key covers
+     */
+    public RecordingResponse(SlingHttpServletResponse response, long maxSize, Collection<String> keyHeaders) {
+        super(response);
+        this.maxSize = maxSize;
+        this.keyHeaders.addAll(keyHeaders);
+    }
+
+    /**
+     * Creates the cache entry of the recorded response.
+     *
+     * @param created time the response was rendered, in milliseconds
+     * @param ttl time the entry is fresh, in seconds
+     * @param staleWhileRevalidate time the entry can be served once expired, in seconds
+     * @return the cache entry or {@code null} if the response couldn't be recorded
+     */
+    public FragmentCache.Entry toEntry(long created, int ttl, int staleWhileRevalidate) {
+        if (!recordable) {
+            return null;
+        }
+        final byte[] content;
+        if (writer != null) {
+            writer.flush();
+            content = encode(chars.toCharArray());
+        } else if (bytes != null) {
+            content = bytes.toByteArray();
+        } else {
+            content = new byte[0];
+        }
+        if (content.length > maxSize) {
+            return null;
+        }
+        return new FragmentCache.Entry(contentType, characterEncoding, headers, content, created, ttl,
+                staleWhileRevalidate);
+    }
+
+    private byte[] encode(char[] content) {
+        final String encoding = getCharacterEncoding();
+        final Charset charset = encoding != null && Charset.isSupported(encoding) ? Charset.forName(encoding)
+                : StandardCharsets.ISO_8859_1;
+        final ByteBuffer buffer = charset.encode(CharBuffer.wrap(content));
+        final byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    private void stopRecording() {
+        recordable = false;
+        chars = null;
+        bytes = null;
+    }
+
+    private void record(char[] cbuf, int off, int len) {
+        if (recordable) {
+            if (chars.size() + len > maxSize) {
+                stopRecording();
+            } else {
+                chars.write(cbuf, off, len);
+            }
+        }
+    }
+
+    private void record(byte[] b, int off, int len) {
+        if (recordable) {
+            if (bytes.size() + len > maxSize) {
+                stopRecording();
+            } else {
+                bytes.write(b, off, len);
+            }
+        }
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            final Writer wrapped = super.getWriter();
+            chars = new CharArrayWriter();
+            writer = new PrintWriter(new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) throws IOException {
+                    wrapped.write(cbuf, off, len);
+                    record(cbuf, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    wrapped.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    wrapped.close();
+                }
+            });
+        }
+        return writer;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            final ServletOutputStream wrapped = super.getOutputStream();
+            bytes = new ByteArrayOutputStream();
+            outputStream = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    wrapped.write(b, off, len);
+                    record(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    wrapped.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    wrapped.close();
+                }
+
+                @Override
+                public boolean isReady() {
+                    return wrapped.isReady();
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                    wrapped.setWriteListener(writeListener);
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        super.flushBuffer();
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        if (chars != null) {
+            chars.reset();
+        }
+        if (bytes != null) {
+            bytes.reset();
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        resetBuffer();
+        headers.clear();
+    }
+
+    @Override
+    public void setContentType(String type) {
+        super.setContentType(type);
+        contentType = type;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        super.setCharacterEncoding(charset);
+        characterEncoding = charset;
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        super.setStatus(sc);
+        if (sc != SC_OK) {
+            stopRecording();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+        super.setStatus(sc, sm);
+        if (sc != SC_OK) {
+            stopRecording();
+        }
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        stopRecording();
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        stopRecording();
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        stopRecording();
+        super.sendRedirect(location);
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        stopRecording();
+        super.addCookie(cookie);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        super.setHeader(name, value);
+        checkCacheable(name, value);
+        if (isRecorded(name)) {
+            final List<String> values = new ArrayList<>(1);
+            values.add(value);
+            headers.put(name, values);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        super.addHeader(name, value);
+        checkCacheable(name, value);
+        if (isRecorded(name)) {
+            headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+        }
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        super.setDateHeader(name, date);
+        recordHeader(name);
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        super.addDateHeader(name, date);
+        recordHeader(name);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        super.setIntHeader(name, value);
+        recordHeader(name);
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        super.addIntHeader(name, value);
+        recordHeader(name);
+    }
+
+    /**
+     * Records the values of a header as formatted by the wrapped response.
+     */
+    private void recordHeader(String name) {
+        if (isRecorded(name)) {
+            headers.put(name, new ArrayList<>(getHeaders(name)));
+        }
+    }
+
+    /**
+     * Stops recording if the header makes the response specific to the request: a
+     * {@code Cache-Control} forbidding shared caches, or a {@code Vary} on headers missing in the
+     * cache key.
+     */
+    private void checkCacheable(String name, String value) {
+        if (value == null) {
+            return;
+        }
+        if (CACHE_CONTROL.equalsIgnoreCase(name)) {
+            for (String directive : StringUtils.split(value, ',')) {
+                final String directiveName = StringUtils.substringBefore(directive, "=").trim().toLowerCase(Locale.ENGLISH);
+                if (ArrayUtils.contains(UNCACHEABLE_DIRECTIVES, directiveName)) {
+                    stopRecording();
+                }
+            }
+        } else if (VARY.equalsIgnoreCase(name)) {
+            for (String header : StringUtils.split(value, ',')) {
+                if (!keyHeaders.contains(header.trim())) {
+                    stopRecording();
+                }
+            }
+        }
+    }
+
+    private boolean isRecorded(String name) {
+        if (SET_COOKIE.equalsIgnoreCase(name)) {
+            stopRecording();
+        }
+        return recordable && !CONTENT_LENGTH.equalsIgnoreCase(name);
+    }
+}
@@ -0,0 +1,103 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * Collapses concurrent identical include requests. The first request for a key renders the
+ * response, while the requests arriving in the meantime wait for its recorded
+ * {@link FragmentCache.Entry}. The wait is bounded, so a slow render doesn't block the others: they
+ * render the response on their own once the timeout elapses, or if it couldn't be recorded.
+ */
+@Component(service = RequestCollapser.class, property = Constants.SERVICE_VENDOR + "=The Apache Software Foundation")
+public class RequestCollapser {
+
+    private final ConcurrentMap<String, CompletableFuture<FragmentCache.Entry>> renders = new ConcurrentHashMap<>();
+
+    private final LongAdder collapsed = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Registers a render of the key, unless another one is in progress.
+     *
+     * @return the render in progress, or {@code null} if the given render was registered and has
+     *         to be completed with {@link #complete(String, CompletableFuture, FragmentCache.Entry)}
+     */
+    public CompletableFuture<FragmentCache.Entry> register(String key, CompletableFuture<FragmentCache.Entry> render) {
+        return renders.putIfAbsent(key, render);
+    }
+
+    /**
+     * Passes the recorded response to the waiting requests.
+     *
+     * @param entry the recorded response or {@code null} if it couldn't be recorded
+     */
+    public void complete(String key, CompletableFuture<FragmentCache.Entry> render, FragmentCache.Entry entry) {
+        renders.remove(key, render);
+        render.complete(entry);
+    }
+
+    /**
+     * Waits for the render in progress at most the given time in milliseconds.
+     *
+     * @return the recorded response or {@code null} if the request should be rendered on its own
+     */
+    public FragmentCache.Entry await(CompletableFuture<FragmentCache.Entry> render, long timeout) {
+        FragmentCache.Entry entry = null;
+        try {
+            entry = render.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // the render failed, fall through
+        }
+        if (entry != null) {
+            collapsed.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * @return number of requests served with the response rendered for another one
+     */
+    public long getCollapsedCount() {
+        return collapsed.sum();
+    }
+
+    /**
+     * @return number of requests which stopped waiting for another one and were rendered on their own
+     */
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+}
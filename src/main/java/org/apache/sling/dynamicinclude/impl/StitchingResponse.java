@@ -0,0 +1,142 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletRequest;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+
+/**
+ * Top level response writing through a {@link StitchingWriter}, so the fragments rendered in the
+ * background are written in place of their markers. It's registered as a request attribute, to be
+ * found by the include generators. The stitching writer is installed when the first fragment is
+ * added, until then the output goes straight to the wrapped response.
+ */
+public final class StitchingResponse extends SlingHttpServletResponseWrapper {
+
+    private static final String ATTRIBUTE = StitchingResponse.class.getName();
+
+    private StitchingWriter stitchingWriter;
+
+    private PrintWriter writer;
+
+    // the writer of the wrapped response, or the stitching writer once installed
+    private Writer output;
+
+    private final List<Future<String>> fragments = new ArrayList<>();
+
+    public StitchingResponse(SlingHttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * @return the stitching response registered for the request or {@code null}
+     */
+    public static StitchingResponse get(ServletRequest request) {
+        final Object response = request.getAttribute(ATTRIBUTE);
+        return response instanceof StitchingResponse ? (StitchingResponse) response : null;
+    }
+
+    public void register(ServletRequest request) {
+        request.setAttribute(ATTRIBUTE, this);
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            output = super.getWriter();
+            writer = new PrintWriter(new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) throws IOException {
+                    output.write(cbuf, off, len);
+                }
+
+                @Override
+                public void write(String str, int off, int len) throws IOException {
+                    output.write(str, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    output.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    output.close();
+                }
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * Registers a fragment rendered in the background, installing the stitching writer for the
+     * first one.
+     *
+     * @return the marker to write in place of the fragment
+     */
+    public String addFragment(Future<String> fragment) throws IOException {
+        getWriter();
+        if (stitchingWriter == null) {
+            writer.flush();
+            stitchingWriter = new StitchingWriter(output);
+            output = stitchingWriter;
+        }
+        fragments.add(fragment);
+        final String id = Integer.toString(fragments.size());
+        stitchingWriter.register(id, fragment);
+        return StitchingWriter.marker(id);
+    }
+
+    /**
+     * @return the fragments added to the response, in document order
+     */
+    public List<Future<String>> getFragments() {
+        return Collections.unmodifiableList(fragments);
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        super.flushBuffer();
+    }
+
+    /**
+     * Writes the remaining fragments, waiting for them at most the given time in milliseconds.
+     */
+    public void finish(long timeout) throws IOException {
+        if (stitchingWriter != null) {
+            stitchingWriter.finish(timeout);
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writer stitching fragments rendered in the background into the output, in document order. The
+ * position of a fragment is marked in the written text with {@link #marker(String)}, which travels
+ * through any buffering writers of the components in order. Once a marker is written, the
+ * following output is kept in memory until the fragment is rendered. Completed fragments are
+ * written as soon as the output reaches them, the remaining ones are waited for by
+ * {@link #finish(long)}.
+ * <p>
+ * The markers are delimited by the private use character U+E000, which HTML parsers and
+ * rewriters keep as text, unlike the control characters. Delimiters written by the components
+ * themselves are written back as they are. A rewriting pipeline processing the output before the
+ * stitching must pass the markers through unchanged, otherwise the fragments are left out.
+ * <p>
+ * The writer is used by the request thread only.
+ */
+public final class StitchingWriter extends Writer {
+
+    private static final char MARK = '\uE000';
+
+    private static final Logger LOG = LoggerFactory.getLogger(StitchingWriter.class);
+
+    private final Writer target;
+
+    private final Map<String, Future<String>> registered = new HashMap<>();
+
+    private final Deque<Segment> pending = new ArrayDeque<>();
+
+    // the marker being read, if any
+    private StringBuilder marker;
+
+    public StitchingWriter(Writer target) {
+        this.target = target;
+    }
+
+    /**
+     * @return the text marking the position of the fragment with given id
+     */
+    public static String marker(String id) {
+        return MARK + id + MARK;
+    }
+
+    /**
+     * Registers a fragment, it's written in place of its marker.
+     */
+    public void register(String id, Future<String> fragment) {
+        registered.put(id, fragment);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int start = off;
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (cbuf[i] == MARK) {
+                writeText(cbuf, start, i - start);
+                toggleMarker();
+                start = i + 1;
+            }
+        }
+        writeText(cbuf, start, end - start);
+        drain();
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        if (marker == null && pending.isEmpty() && str.indexOf(MARK, off) < 0) {
+            target.write(str, off, len);
+            return;
+        }
+        final char[] chars = new char[len];
+        str.getChars(off, off + len, chars, 0);
+        write(chars, 0, len);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        write(new char[] { (char) c }, 0, 1);
+    }
+
+    private void writeText(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        if (marker != null) {
+            marker.append(cbuf, off, len);
+        } else if (pending.isEmpty()) {
+            target.write(cbuf, off, len);
+        } else {
+            pending.getLast().following.append(cbuf, off, len);
+        }
+    }
+
+    private void toggleMarker() throws IOException {
+        if (marker == null) {
+            marker = new StringBuilder();
+            return;
+        }
+        final String id = marker.toString();
+        marker = null;
+        final Future<String> fragment = registered.remove(id);
+        if (fragment != null) {
+            pending.addLast(new Segment(id, fragment));
+        } else {
+            // not a marker of ours, write it as it is
+            final char[] text = marker(id).toCharArray();
+            writeText(text, 0, text.length);
+        }
+    }
+
+    /**
+     * Writes the fragments at the head of the output which are rendered already.
+     */
+    private void drain() throws IOException {
+        while (!pending.isEmpty() && pending.getFirst().fragment.isDone()) {
+            writeSegment(pending.removeFirst(), 0);
+        }
+    }
+
+    private void writeSegment(Segment segment, long timeoutNanos) throws IOException {
+        String content = null;
+        try {
+            content = segment.fragment.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("Fragment {} not rendered in time", segment.id);
+            segment.fragment.cancel(true);
+        } catch (ExecutionException e) {
+            LOG.warn("Can't render fragment {}", segment.id, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            segment.fragment.cancel(true);
+        }
+        if (content != null) {
+            target.write(content);
+        }
+        target.write(segment.following.toString());
+    }
+
+    /**
+     * Waits for the remaining fragments and writes them with the rest of the output. Fragments
+     * not rendered within the timeout are left out.
+     *
+     * @param timeout time to wait for all the fragments, in milliseconds
+     */
+    public void finish(long timeout) throws IOException {
+        if (marker != null) {
+            // an unterminated marker is just text
+            final char[] text = (MARK + marker.toString()).toCharArray();
+            marker = null;
+            writeText(text, 0, text.length);
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (!pending.isEmpty()) {
+            writeSegment(pending.removeFirst(), Math.max(0, deadline - System.nanoTime()));
+        }
+        for (Future<String> fragment : registered.values()) {
+            fragment.cancel(true);
+        }
+        registered.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        target.flush();
+    }
+
+    /**
+     * Closes the output, unless there are fragments still to be written by {@link #finish(long)}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (pending.isEmpty() && marker == null) {
+            target.close();
+        } else {
+            flush();
+        }
+    }
+
+    private static final class Segment {
+
+        private final String id;
+
+        private final Future<String> fragment;
+
+        private final StringBuilder following = new StringBuilder();
+
+        private Segment(String id, Future<String> fragment) {
+            this.id = id;
+            this.fragment = fragment;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.impl;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds header values to the top level response of a request while its components are included,
+ * e.g. {@code Surrogate-Control: content="ESI/1.0"} once an ESI include has been written, so edge
+ * caches only process the pages which need it. Included responses can't set headers, so the top
+ * level response is registered as a request attribute when the request starts. The values have
+ * to be added before the response is committed, callers are told if that's too late so they can
+ * write something which doesn't depend on the header.
+ */
+public final class TopLevelResponse {
+
+    public static final String SURROGATE_CONTROL = "Surrogate-Control";
+
+    public static final String VARY = "Vary";
+
+    private static final String ATTRIBUTE = TopLevelResponse.class.getName();
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopLevelResponse.class);
+
+    private final HttpServletResponse response;
+
+    private final Set<String> added = new HashSet<>();
+
+    private TopLevelResponse(HttpServletResponse response) {
+        this.response = response;
+    }
+
+    /**
+     * Registers the top level response of the request.
+     */
+    public static void register(ServletRequest request, HttpServletResponse response) {
+        request.setAttribute(ATTRIBUTE, new TopLevelResponse(response));
+    }
+
+    /**
+     * Adds the value to the comma separated list of the header of the top level response, unless
+     * it has been added already.
+     *
+     * @param request the request, or any of its includes
+     * @param name    the header name
+     * @param value   the value to add
+     * @return true if the top level response has the value, false if it can't be added as the
+     *         response is already committed or isn't registered
+     */
+    public static boolean addHeaderValue(ServletRequest request, String name, String value) {
+        final Object topLevelResponse = request.getAttribute(ATTRIBUTE);
+        if (topLevelResponse instanceof TopLevelResponse) {
+            return ((TopLevelResponse) topLevelResponse).addHeaderValue(name, value);
+        }
+        LOG.debug("No top level response registered, can't add {}: {}", name, value);
+        return false;
+    }
+
+    private synchronized boolean addHeaderValue(String name, String value) {
+        final String key = name + ':' + value;
+        if (added.contains(key)) {
+            return true;
+        }
+        if (response.isCommitted()) {
+            LOG.debug("Response already committed, can't add {}: {}", name, value);
+            return false;
+        }
+        final String current = response.getHeader(name);
+        if (current == null || current.isEmpty()) {
+            response.setHeader(name, value);
+        } else if (!current.contains(value)) {
+            response.setHeader(name, current + ", " + value);
+        }
+        added.add(key);
+        return true;
+    }
+}
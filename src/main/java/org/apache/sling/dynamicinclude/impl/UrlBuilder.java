@@ -19,23 +19,71 @@
 
 package org.apache.sling.dynamicinclude.impl;
 
-import java.util.Arrays;
+import java.net.URI;
+import java.net.URISyntaxException;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.dynamicinclude.Configuration;
 
 public final class UrlBuilder {
 
+    private static final String JCR_CONTENT = "jcr:content";
+
+    private static final String ENCODED_JCR_CONTENT = "_jcr_content";
+
+    // characters java.net.URI leaves unquoted in a path: unreserved, punct, '/' and '@'
+    private static final String PATH_PUNCTUATION = "_-!.~'()*,;:$&+=/@";
+
+    // larger buffers aren't kept for the next url
+    private static final int MAX_BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(128));
 
     public static String buildUrl(String includeSelector, String resourceType, boolean synthetic, Configuration config, RequestPathInfo pathInfo) {
-        final StringBuilder builder = new StringBuilder();
+        final StringBuilder builder = buffer();
+        append(builder, includeSelector, resourceType, synthetic, config, pathInfo);
+        return builder.toString();
+    }
 
-        final String resourcePath = pathInfo.getResourcePath();
-        builder.append(resourcePath);
-        String currentSelectorString = StringUtils.defaultString(pathInfo.getSelectorString());
-        if (pathInfo.getSelectorString() != null) {
-            builder.append('.').append(currentSelectorString);
+    /**
+     * Builds the include url and prepares it for the response in the same buffer. For the
+     * configurations rewriting the path the question marks are removed and the url still has to be
+     * mapped. Otherwise the {@code jcr:content} parts are encoded to {@code _jcr_content} and the
+     * url is percent-encoded like {@code new URI(null, null, url, null).toASCIIString()} does,
+     * which is skipped for plain ASCII paths that don't need any encoding.
+     *
+     * @throws URISyntaxException if the url can't be encoded
+     */
+    public static String buildIncludeUrl(String includeSelector, String resourceType, boolean synthetic, Configuration config, RequestPathInfo pathInfo) throws URISyntaxException {
+        final StringBuilder builder = buffer();
+        append(builder, includeSelector, resourceType, synthetic, config, pathInfo);
+        if (config.isRewritePath()) {
+            removeQuestionMarks(builder);
+            return builder.toString();
+        }
+        encodeJcrContentParts(builder);
+        final String url = builder.toString();
+        if (isEncoded(builder)) {
+            return url;
+        }
+        return new URI(null, null, url, null).toASCIIString();
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder builder = BUFFER.get();
+        if (builder.capacity() > MAX_BUFFER_SIZE) {
+            builder = new StringBuilder(128);
+            BUFFER.set(builder);
+        }
+        builder.setLength(0);
+        return builder;
+    }
+
+    private static void append(StringBuilder builder, String includeSelector, String resourceType, boolean synthetic, Configuration config, RequestPathInfo pathInfo) {
+        builder.append(pathInfo.getResourcePath());
+        final String selectorString = pathInfo.getSelectorString();
+        if (selectorString != null) {
+            builder.append('.').append(selectorString);
         }
         if (includeSelectorNotAlreadyPresent(pathInfo.getSelectors(), includeSelector)) {
             builder.append('.').append(includeSelector);
@@ -48,16 +96,57 @@ public final class UrlBuilder {
             }
         } else {
             if (config.isAppendSuffix()) {
-                builder.append(StringUtils.defaultString(pathInfo.getSuffix()));
+                final String suffix = pathInfo.getSuffix();
+                if (suffix != null) {
+                    builder.append(suffix);
+                }
             }
         }
-        return builder.toString();
     }
 
     private static boolean includeSelectorNotAlreadyPresent(String[] currentSelectors, String includeSelector) {
         if (includeSelector.isEmpty()) {
             return false;
         }
-        return !Arrays.asList(currentSelectors).contains(includeSelector);
+        for (String selector : currentSelectors) {
+            if (includeSelector.equals(selector)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void removeQuestionMarks(StringBuilder builder) {
+        int length = 0;
+        for (int i = 0; i < builder.length(); i++) {
+            final char c = builder.charAt(i);
+            if (c != '?') {
+                builder.setCharAt(length++, c);
+            }
+        }
+        builder.setLength(length);
+    }
+
+    private static void encodeJcrContentParts(StringBuilder builder) {
+        for (int i = builder.indexOf(JCR_CONTENT); i >= 0; i = builder.indexOf(JCR_CONTENT, i + ENCODED_JCR_CONTENT.length())) {
+            builder.replace(i, i + JCR_CONTENT.length(), ENCODED_JCR_CONTENT);
+        }
+    }
+
+    /**
+     * Checks if java.net.URI would return the url as it is: an absolute path (not starting with
+     * an authority) consisting only of the characters it doesn't quote.
+     */
+    private static boolean isEncoded(CharSequence url) {
+        if (url.length() == 0 || url.charAt(0) != '/' || (url.length() > 1 && url.charAt(1) == '/')) {
+            return false;
+        }
+        for (int i = 1; i < url.length(); i++) {
+            final char c = url.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || PATH_PUNCTUATION.indexOf(c) >= 0)) {
+                return false;
+            }
+        }
+        return true;
     }
 }
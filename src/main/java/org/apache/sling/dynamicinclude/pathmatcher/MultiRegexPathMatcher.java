@@ -0,0 +1,173 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.pathmatcher;
+
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a path against several {@link RegexPathMatcher} patterns at once. The literal prefix of
+ * every pattern (e.g. {@code /content/site/} for {@code ^/content/site/.*}) is compiled into a
+ * {@link PrefixPathTrie}, so a single walk of the path discards all the patterns that cannot
+ * match. Only the remaining candidates are evaluated with their regular expression.
+ */
+public final class MultiRegexPathMatcher {
+
+  private static final String METACHARACTERS = ".[](){}*+?^$|";
+
+  private static final String QUANTIFIERS = "?*+{";
+
+  private final Pattern[] patterns;
+
+  private final PrefixPathTrie prefilter;
+
+  /**
+   * @param patterns patterns to match, the array index of each pattern is reported by
+   *                 {@link #match(String)}; {@code null} elements are skipped
+   */
+  public MultiRegexPathMatcher(Pattern[] patterns) {
+    this.patterns = patterns.clone();
+    final String[] prefixes = new String[patterns.length];
+    for (int i = 0; i < patterns.length; i++) {
+      if (patterns[i] != null) {
+        prefixes[i] = literalPrefix(patterns[i].pattern());
+      }
+    }
+    this.prefilter = new PrefixPathTrie(prefixes);
+  }
+
+  /**
+   * Returns the patterns which may match given path, without evaluating the regular expressions.
+   * @param path path to match
+   * @return indexes of the patterns whose literal prefix matches the path
+   */
+  public BitSet candidates(String path) {
+    return prefilter.match(path);
+  }
+
+  /**
+   * Evaluates a single pattern.
+   * @param index index of the pattern
+   * @param path path to match
+   * @return true if the pattern matches the whole path
+   */
+  public boolean match(int index, String path) {
+    return patterns[index].matcher(path).matches();
+  }
+
+  /**
+   * Matches given path with all the patterns.
+   * @param path path to match
+   * @return indexes of the matching patterns
+   */
+  public BitSet match(String path) {
+    final BitSet result = candidates(path);
+    for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+      if (!match(i, path)) {
+        result.clear(i);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Extracts the literal text every match of the regular expression has to start with. The
+   * extraction is conservative: it stops at the first construct which is not a plain character
+   * and returns an empty string for expressions with a top level alternation.
+   */
+  static String literalPrefix(String regex) {
+    if (hasTopLevelAlternation(regex)) {
+      return "";
+    }
+    final StringBuilder prefix = new StringBuilder();
+    int i = 0;
+    while (i < regex.length() && regex.charAt(i) == '^') {
+      i++;
+    }
+    while (i < regex.length()) {
+      final char c = regex.charAt(i);
+      final char literal;
+      final int next;
+      if (c == '\\') {
+        if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+          break;
+        }
+        literal = regex.charAt(i + 1);
+        next = i + 2;
+      } else if (METACHARACTERS.indexOf(c) >= 0) {
+        break;
+      } else {
+        literal = c;
+        next = i + 1;
+      }
+      if (next < regex.length() && QUANTIFIERS.indexOf(regex.charAt(next)) >= 0) {
+        // the character is mandatory only when followed by '+'
+        if (regex.charAt(next) == '+') {
+          prefix.append(literal);
+        }
+        break;
+      }
+      prefix.append(literal);
+      i = next;
+    }
+    return prefix.toString();
+  }
+
+  private static boolean hasTopLevelAlternation(String regex) {
+    int depth = 0;
+    boolean inClass = false;
+    int classDepth = 0;
+    for (int i = 0; i < regex.length(); i++) {
+      final char c = regex.charAt(i);
+      if (c == '\\') {
+        if (regex.startsWith("Q", i + 1)) {
+          final int end = regex.indexOf("\\E", i + 2);
+          if (end < 0) {
+            return false;
+          }
+          i = end + 1;
+        } else {
+          i++;
+        }
+      } else if (inClass) {
+        if (c == '[') {
+          classDepth++;
+        } else if (c == ']' && --classDepth == 0) {
+          inClass = false;
+        }
+      } else if (c == '[') {
+        inClass = true;
+        classDepth = 1;
+        // a ']' right after the opening bracket (or negation) is a literal
+        if (regex.startsWith("^]", i + 1)) {
+          i += 2;
+        } else if (regex.startsWith("]", i + 1)) {
+          i++;
+        }
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == '|' && depth == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
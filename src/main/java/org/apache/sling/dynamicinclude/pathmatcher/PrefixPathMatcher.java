@@ -28,6 +28,10 @@ public class PrefixPathMatcher implements PathMatcher {
     this.configurationValue = configurationValue;
   }
 
+  public String getConfigurationValue() {
+    return configurationValue;
+  }
+
   @Override
   public boolean match(String path) {
     return StringUtils.isNotBlank(path) && path.startsWith(configurationValue);
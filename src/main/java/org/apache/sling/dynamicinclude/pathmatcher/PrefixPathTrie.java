@@ -0,0 +1,114 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.pathmatcher;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Immutable trie over the values of several {@link PrefixPathMatcher}s. A single walk of a path
+ * returns the indexes of all prefixes matching it, with the same semantics as
+ * {@link PrefixPathMatcher#match(String)}. The walk is done per character, as prefixes are not
+ * required to end on a path segment boundary.
+ */
+public final class PrefixPathTrie {
+
+  private static final char[] NO_LABELS = new char[0];
+
+  private static final Node[] NO_CHILDREN = new Node[0];
+
+  private final Node root = new Node();
+
+  /**
+   * @param prefixes prefixes to match, the array index of each prefix is reported by
+   *                 {@link #match(String)}; {@code null} elements are skipped
+   */
+  public PrefixPathTrie(String[] prefixes) {
+    for (int i = 0; i < prefixes.length; i++) {
+      if (prefixes[i] != null) {
+        add(prefixes[i], i);
+      }
+    }
+  }
+
+  private void add(String prefix, int index) {
+    Node node = root;
+    for (int i = 0; i < prefix.length(); i++) {
+      node = node.getOrAddChild(prefix.charAt(i));
+    }
+    node.matches.set(index);
+  }
+
+  /**
+   * Matches given path against all the prefixes.
+   * @param path path to match
+   * @return indexes of the matching prefixes
+   */
+  public BitSet match(String path) {
+    final BitSet result = new BitSet();
+    if (StringUtils.isBlank(path)) {
+      return result;
+    }
+    Node node = root;
+    result.or(node.matches);
+    for (int i = 0; i < path.length(); i++) {
+      node = node.getChild(path.charAt(i));
+      if (node == null) {
+        break;
+      }
+      result.or(node.matches);
+    }
+    return result;
+  }
+
+  private static final class Node {
+
+    private char[] labels = NO_LABELS;
+
+    private Node[] children = NO_CHILDREN;
+
+    private final BitSet matches = new BitSet();
+
+    private Node getChild(char c) {
+      final int i = Arrays.binarySearch(labels, c);
+      return i < 0 ? null : children[i];
+    }
+
+    private Node getOrAddChild(char c) {
+      int i = Arrays.binarySearch(labels, c);
+      if (i >= 0) {
+        return children[i];
+      }
+      i = -i - 1;
+      final char[] newLabels = new char[labels.length + 1];
+      final Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(labels, 0, newLabels, 0, i);
+      System.arraycopy(children, 0, newChildren, 0, i);
+      System.arraycopy(labels, i, newLabels, i + 1, labels.length - i);
+      System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+      newLabels[i] = c;
+      newChildren[i] = new Node();
+      labels = newLabels;
+      children = newChildren;
+      return newChildren[i];
+    }
+  }
+}
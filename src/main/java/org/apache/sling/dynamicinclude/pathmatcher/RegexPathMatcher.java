@@ -29,6 +29,10 @@ public class RegexPathMatcher implements PathMatcher {
     this.configurationPattern = Pattern.compile(configurationRegex);
   }
 
+  public Pattern getPattern() {
+    return configurationPattern;
+  }
+
   @Override
   public boolean match(String path) {
     return StringUtils.isNotBlank(path) && configurationPattern.matcher(path).matches();
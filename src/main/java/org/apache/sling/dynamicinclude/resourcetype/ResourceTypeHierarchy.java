@@ -0,0 +1,138 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.resourcetype;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.dynamicinclude.impl.BoundedCache;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the {@code sling:resourceSuperType} chain of resource types. The chains are read with
+ * the {@value #SUBSERVICE} service user and cached until anything changes below the observed
+ * paths. If the service user can't be logged in, the chains are read with the resolver of the
+ * request and not cached, and the login is retried only after a while.
+ */
+@Component(service = { ResourceTypeHierarchy.class, ResourceChangeListener.class },
+    property = {
+        ResourceChangeListener.PATHS + "=/apps",
+        ResourceChangeListener.PATHS + "=/libs",
+        Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
+    })
+@Designate(ocd = ResourceTypeHierarchy.Config.class)
+public class ResourceTypeHierarchy implements ResourceChangeListener, ExternalResourceChangeListener {
+
+  @ObjectClassDefinition(name = "Apache Sling Dynamic Include - Resource Type Hierarchy")
+  public @interface Config {
+      @AttributeDefinition(name = "Cache size", description = "Maximum number of resource types whose super types are cached")
+      int include$_$filter_hierarchy_cache$_$size() default 1000;
+  }
+
+  static final String SUBSERVICE = "resource-type-hierarchy";
+
+  // time the request resolver is used after a failed service login, in milliseconds
+  static final long LOGIN_RETRY_INTERVAL = 60000;
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResourceTypeHierarchy.class);
+
+  @Reference
+  private ResourceResolverFactory resourceResolverFactory;
+
+  private volatile BoundedCache<String, List<String>> superTypes = new BoundedCache<>(0);
+
+  private volatile long nextLoginAttempt;
+
+  @Activate
+  public void activate(Config cfg) {
+    superTypes = new BoundedCache<>(cfg.include$_$filter_hierarchy_cache$_$size());
+    nextLoginAttempt = 0;
+  }
+
+  /**
+   * Returns the super types of given resource type.
+   * @param resourceType resource type
+   * @param fallback resolver to use if the service user can't be logged in, the super types read
+   *        with it aren't cached as they depend on its user
+   * @return super types, the closest one first
+   */
+  public List<String> getSuperTypes(String resourceType, ResourceResolver fallback) {
+    List<String> result = superTypes.get(resourceType);
+    if (result != null) {
+      return result;
+    }
+    final ResourceResolver serviceResolver = getServiceResolver();
+    if (serviceResolver == null) {
+      return walkSuperTypes(resourceType, fallback);
+    }
+    try {
+      result = walkSuperTypes(resourceType, serviceResolver);
+      superTypes.put(resourceType, result);
+      return result;
+    } finally {
+      serviceResolver.close();
+    }
+  }
+
+  private ResourceResolver getServiceResolver() {
+    if (System.currentTimeMillis() < nextLoginAttempt) {
+      return null;
+    }
+    try {
+      return resourceResolverFactory.getServiceResourceResolver(
+          Collections.<String, Object>singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE));
+    } catch (LoginException e) {
+      nextLoginAttempt = System.currentTimeMillis() + LOGIN_RETRY_INTERVAL;
+      LOG.warn("Can't log in the {} service user, using the request resolver for the next {} ms", SUBSERVICE,
+          LOGIN_RETRY_INTERVAL, e);
+      return null;
+    }
+  }
+
+  private static List<String> walkSuperTypes(String resourceType, ResourceResolver resolver) {
+    final Set<String> result = new LinkedHashSet<>();
+    String type = resolver.getParentResourceType(resourceType);
+    while (type != null && !type.equals(resourceType) && result.add(type)) {
+      type = resolver.getParentResourceType(type);
+    }
+    return Collections.unmodifiableList(new ArrayList<>(result));
+  }
+
+  @Override
+  public void onChange(List<ResourceChange> changes) {
+    superTypes.clear();
+  }
+}
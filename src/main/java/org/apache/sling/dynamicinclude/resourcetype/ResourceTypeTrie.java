@@ -0,0 +1,172 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.resourcetype;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Immutable trie over resource type patterns, keyed on the {@code /} separated segments of the
+ * resource type. A {@code *} segment matches exactly one segment and a {@code **} segment matches
+ * any number of segments, including none, e.g. {@code myapp/components/dynamic/*} or
+ * {@code myapp/components/**}{@code /personalized}. Matching walks the resource type once, so its
+ * cost depends on the number of segments rather than on the number of patterns.
+ */
+public final class ResourceTypeTrie {
+
+  private static final String ANY_SEGMENT = "*";
+
+  private static final String ANY_SEGMENTS = "**";
+
+  private final Node root = new Node(false);
+
+  private boolean empty = true;
+
+  /**
+   * @param patterns patterns to match, the array index of each pattern is reported by
+   *                 {@link #match(String)}; {@code null} elements are skipped
+   */
+  public ResourceTypeTrie(String[] patterns) {
+    for (int i = 0; i < patterns.length; i++) {
+      if (patterns[i] != null) {
+        add(patterns[i], i);
+      }
+    }
+  }
+
+  /**
+   * Checks if given resource type entry contains a wildcard segment.
+   * @param resourceType resource type entry
+   * @return true if the entry is a pattern, false if it is an exact resource type
+   */
+  public static boolean isPattern(String resourceType) {
+    for (String segment : StringUtils.splitPreserveAllTokens(resourceType, '/')) {
+      if (ANY_SEGMENT.equals(segment) || ANY_SEGMENTS.equals(segment)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void add(String pattern, int index) {
+    Node node = root;
+    for (String segment : StringUtils.splitPreserveAllTokens(pattern, '/')) {
+      if (ANY_SEGMENTS.equals(segment)) {
+        if (node.anySegments == null) {
+          node.anySegments = new Node(true);
+        }
+        node = node.anySegments;
+      } else if (ANY_SEGMENT.equals(segment)) {
+        if (node.anySegment == null) {
+          node.anySegment = new Node(false);
+        }
+        node = node.anySegment;
+      } else {
+        Node child = node.children.get(segment);
+        if (child == null) {
+          child = new Node(false);
+          node.children.put(segment, child);
+        }
+        node = child;
+      }
+    }
+    node.matches.set(index);
+    empty = false;
+  }
+
+  public boolean isEmpty() {
+    return empty;
+  }
+
+  /**
+   * Matches given resource type with all the patterns.
+   * @param resourceType resource type to match
+   * @return indexes of the matching patterns
+   */
+  public BitSet match(String resourceType) {
+    final BitSet result = new BitSet();
+    if (empty || StringUtils.isBlank(resourceType)) {
+      return result;
+    }
+    List<Node> current = new ArrayList<>();
+    addWithClosure(current, root);
+    int start = 0;
+    while (start <= resourceType.length() && !current.isEmpty()) {
+      int end = resourceType.indexOf('/', start);
+      if (end < 0) {
+        end = resourceType.length();
+      }
+      final String segment = resourceType.substring(start, end);
+      final List<Node> next = new ArrayList<>();
+      for (Node node : current) {
+        final Node child = node.children.get(segment);
+        if (child != null) {
+          addWithClosure(next, child);
+        }
+        if (node.anySegment != null) {
+          addWithClosure(next, node.anySegment);
+        }
+        if (node.isAnySegments) {
+          addWithClosure(next, node);
+        }
+      }
+      current = next;
+      start = end + 1;
+    }
+    for (Node node : current) {
+      result.or(node.matches);
+    }
+    return result;
+  }
+
+  /**
+   * Adds the node and, as {@code **} may match no segment at all, the {@code **} node below it.
+   */
+  private static void addWithClosure(List<Node> nodes, Node node) {
+    if (nodes.contains(node)) {
+      return;
+    }
+    nodes.add(node);
+    if (node.anySegments != null) {
+      addWithClosure(nodes, node.anySegments);
+    }
+  }
+
+  private static final class Node {
+
+    private final boolean isAnySegments;
+
+    private final Map<String, Node> children = new HashMap<>();
+
+    private Node anySegment;
+
+    private Node anySegments;
+
+    private final BitSet matches = new BitSet();
+
+    private Node(boolean isAnySegments) {
+      this.isAnySegments = isAnySegments;
+    }
+  }
+}
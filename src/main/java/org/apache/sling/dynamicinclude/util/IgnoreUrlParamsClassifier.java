@@ -0,0 +1,136 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a request parameter is covered by the configured ignore URL params. The regular
+ * expressions are compiled once, merged into a single alternation when that doesn't change their
+ * meaning, and the verdicts for the parameter names seen so far are cached. The verdicts are
+ * checked on every request with parameters, so they're kept in a {@link ConcurrentHashMap} which
+ * is simply cleared once it gets full, rather than in a cache ordered by use.
+ */
+public final class IgnoreUrlParamsClassifier {
+
+	private static final int VERDICT_CACHE_SIZE = 512;
+
+	private final Pattern[] patterns;
+
+	private final ConcurrentMap<String, Boolean> verdicts = new ConcurrentHashMap<>();
+
+	/**
+	 * @param ignoreUrlParams regular expressions matching the ignored parameter names
+	 * @throws java.util.regex.PatternSyntaxException if any of the expressions is invalid
+	 */
+	public IgnoreUrlParamsClassifier(Collection<String> ignoreUrlParams) {
+		this.patterns = compile(ignoreUrlParams);
+	}
+
+	/**
+	 * @param parameterName name of the request parameter
+	 * @return true if the parameter name fully matches one of the ignore URL params
+	 */
+	public boolean isIgnored(String parameterName) {
+		if (patterns.length == 0) {
+			return false;
+		}
+		Boolean verdict = verdicts.get(parameterName);
+		if (verdict == null) {
+			verdict = matches(parameterName);
+			if (verdicts.size() >= VERDICT_CACHE_SIZE) {
+				verdicts.clear();
+			}
+			verdicts.put(parameterName, verdict);
+		}
+		return verdict;
+	}
+
+	private boolean matches(String parameterName) {
+		for (Pattern pattern : patterns) {
+			if (pattern.matcher(parameterName).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Pattern[] compile(Collection<String> regexes) {
+		final List<Pattern> result = new ArrayList<>();
+		final StringBuilder merged = new StringBuilder();
+		for (String regex : regexes) {
+			if (isMergeable(regex)) {
+				Pattern.compile(regex);
+				if (merged.length() > 0) {
+					merged.append('|');
+				}
+				merged.append("(?:").append(regex).append(')');
+			} else {
+				result.add(Pattern.compile(regex));
+			}
+		}
+		if (merged.length() > 0) {
+			result.add(0, Pattern.compile(merged.toString()));
+		}
+		return result.toArray(new Pattern[0]);
+	}
+
+	/**
+	 * Back references and named groups would refer to other groups or clash once the expression is
+	 * a part of a bigger one, while unterminated quotes and comments enabled by the {@code x} flag
+	 * would swallow the rest of it, so such expressions are kept separate.
+	 */
+	private static boolean isMergeable(String regex) {
+		for (int i = 0; i < regex.length() - 1; i++) {
+			final char c = regex.charAt(i);
+			final char next = regex.charAt(i + 1);
+			if (c == '\\') {
+				if (Character.isDigit(next) || next == 'k' || next == 'Q') {
+					return false;
+				}
+				i++;
+			} else if (c == '(' && next == '?' && (isNamedGroup(regex, i + 2) || hasCommentsFlag(regex, i + 2))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isNamedGroup(String regex, int start) {
+		return regex.startsWith("<", start) && start + 1 < regex.length() && Character.isLetter(regex.charAt(start + 1));
+	}
+
+	private static boolean hasCommentsFlag(String regex, int start) {
+		for (int i = start; i < regex.length(); i++) {
+			final char c = regex.charAt(i);
+			if (c == 'x') {
+				return true;
+			} else if (!Character.isLetter(c) && c != '-') {
+				return false;
+			}
+		}
+		return false;
+	}
+}
@@ -36,7 +36,11 @@ public class RequestHelperUtil {
 	 * @param ignoreUrlParams The list of configured ignoreUrlParams (regular expressions)
 	 * @param request         The slingRequest whose parameters we want to check
 	 * @return true if there was any parameter that is not defined on the ignoreUrlsParams-Collection, otherwise false
+	 * @deprecated compiles the expressions on every call, use
+	 *             {@link #requestHasNonIgnoredParameters(IgnoreUrlParamsClassifier, SlingHttpServletRequest)} with a
+	 *             classifier created once instead
 	 */
+	@Deprecated
 	public static boolean requestHasNonIgnoredParameters(Collection<String> ignoreUrlParams, SlingHttpServletRequest request) {
 		return request.getParameterMap().keySet().stream()
 				.anyMatch(urlParameter -> !matchesRegularExpressionIgnoreUrlParameter(ignoreUrlParams, urlParameter));
@@ -52,4 +56,20 @@ public class RequestHelperUtil {
 		return false;
 	}
 
+	/**
+	 * Checks if a request contains any parameters that are not ignored by the classifier.
+	 *
+	 * @param ignoreUrlParams The classifier compiled from the configured ignoreUrlParams
+	 * @param request         The slingRequest whose parameters we want to check
+	 * @return true if there was any parameter that is not ignored, otherwise false
+	 */
+	public static boolean requestHasNonIgnoredParameters(IgnoreUrlParamsClassifier ignoreUrlParams, SlingHttpServletRequest request) {
+		for (String urlParameter : request.getParameterMap().keySet()) {
+			if (!ignoreUrlParams.isIgnored(urlParameter)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 }
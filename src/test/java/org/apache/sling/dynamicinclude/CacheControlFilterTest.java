@@ -0,0 +1,100 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude;
+
+import static org.apache.sling.dynamicinclude.ConfigurationSupport.configuration;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.FilterChain;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.dynamicinclude.impl.TopLevelResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CacheControlFilterTest {
+
+    @Mock
+    private ConfigurationWhiteboard configurationWhiteboard;
+
+    @InjectMocks
+    private CacheControlFilter filter;
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private SlingHttpServletResponse response;
+
+    @Mock
+    private FilterChain chain;
+
+    @Mock
+    private Resource resource;
+
+    @Mock
+    private RequestPathInfo pathInfo;
+
+    @Before
+    public void setUp() {
+        when(request.getResource()).thenReturn(resource);
+        when(resource.getResourceType()).thenReturn("app/component");
+        when(request.getRequestPathInfo()).thenReturn(pathInfo);
+        when(configurationWhiteboard.getConfiguration(request, "app/component")).thenReturn(configuration(
+                "include-filter.config.ttl", "60",
+                "include-filter.config.edge-ttl", "300",
+                "include-filter.config.esi.alt-edge-ttl", "86400",
+                "include-filter.config.generator-options", "alt-selector=stale"));
+    }
+
+    @Test
+    public void shouldSetTtlOfComponent() throws Exception {
+        when(pathInfo.getSelectors()).thenReturn(new String[] { "nocache" });
+
+        filter.doFilter(request, response, chain);
+
+        verify(response).setHeader("Cache-Control", "max-age=60");
+        verify(response).setHeader(TopLevelResponse.SURROGATE_CONTROL, "max-age=300");
+        verify(response).setDateHeader(eq("Date"), anyLong());
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void shouldSetAltEdgeTtlToAltVariant() throws Exception {
+        when(pathInfo.getSelectors()).thenReturn(new String[] { "nocache", "stale" });
+
+        filter.doFilter(request, response, chain);
+
+        verify(response).setHeader("Cache-Control", "max-age=60");
+        verify(response).setHeader(TopLevelResponse.SURROGATE_CONTROL, "max-age=86400");
+        verify(chain).doFilter(request, response);
+    }
+}
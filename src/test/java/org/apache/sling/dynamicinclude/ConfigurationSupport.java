@@ -0,0 +1,101 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+
+/**
+ * Creates {@link Configuration}s for the tests. The configuration gets its component properties
+ * in the constructor, which the OSGi mocks can't call, so these are built here the way the
+ * Service Component Runtime does.
+ */
+public final class ConfigurationSupport {
+
+    private ConfigurationSupport() {
+    }
+
+    /**
+     * Creates a configuration. The properties use the names of the OSGi configuration (e.g.
+     * {@code include-filter.config.resource-types}), the other attributes have their default values.
+     */
+    public static Configuration configuration(Map<String, Object> properties) {
+        return new Configuration(componentProperties(properties));
+    }
+
+    /**
+     * Creates a configuration from given property names and values.
+     */
+    public static Configuration configuration(Object... properties) {
+        return configuration(toMap(properties));
+    }
+
+    /**
+     * Creates a configuration and registers it as a service with given properties.
+     */
+    public static Configuration registerConfiguration(OsgiContext context, Map<String, Object> properties) {
+        return context.registerService(Configuration.class, configuration(properties), properties);
+    }
+
+    private static Configuration.Config componentProperties(Map<String, Object> properties) {
+        final Object config = Proxy.newProxyInstance(Configuration.Config.class.getClassLoader(),
+                new Class<?>[] { Configuration.Config.class }, (proxy, method, args) -> {
+                    final Object value = properties.get(propertyName(method.getName()));
+                    return value != null ? coerce(value, method.getReturnType()) : method.getDefaultValue();
+                });
+        return (Configuration.Config) config;
+    }
+
+    // the name mapping of the component property types
+    private static String propertyName(String methodName) {
+        return methodName.replace("$_$", "-").replace("__", "\u0000").replace('_', '.').replace('\u0000', '_');
+    }
+
+    private static Object coerce(Object value, Class<?> type) {
+        if (type.isArray()) {
+            if (value.getClass().isArray()) {
+                return value;
+            }
+            final Object array = Array.newInstance(type.getComponentType(), 1);
+            Array.set(array, 0, coerce(value, type.getComponentType()));
+            return array;
+        } else if (type == String.class) {
+            return String.valueOf(value);
+        } else if (type == boolean.class) {
+            return Boolean.valueOf(String.valueOf(value));
+        } else if (type == int.class) {
+            return value instanceof Number ? ((Number) value).intValue() : Integer.valueOf(String.valueOf(value));
+        } else if (type == long.class) {
+            return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(String.valueOf(value));
+        }
+        return value;
+    }
+
+    private static Map<String, Object> toMap(Object... properties) {
+        final Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < properties.length; i += 2) {
+            map.put((String) properties[i], properties[i + 1]);
+        }
+        return map;
+    }
+}
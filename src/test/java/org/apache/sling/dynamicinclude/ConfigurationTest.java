@@ -19,40 +19,36 @@
 
 package org.apache.sling.dynamicinclude;
 
+import static org.apache.sling.dynamicinclude.ConfigurationSupport.configuration;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+
+import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.dynamicinclude.pathmatcher.PrefixPathMatcher;
-import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
-import org.junit.Before;
-import org.junit.Rule;
 import org.junit.Test;
 
 public class ConfigurationTest {
 
   private Configuration tested;
-  
-  @Rule
-  public final OsgiContext context = new OsgiContext();
-
-  @Before
-  public void setUp() {
-    tested = new Configuration();
-  }
 
   @Test(expected = RuntimeException.class)
   public void shouldThrowExceptionWhenRegexisInvalid() throws Exception {
       
-    context.registerInjectActivateService(tested, "include-filter.config.path", "^(");
+    configuration("include-filter.config.path", "^(");
   }
 
   @Test
   public void shouldSetDefaultValuesWhenPropertiesAreEmpty() throws Exception {
     Map<String, Object> properties = new HashMap<String, Object>();
 
-    context.registerInjectActivateService(tested, properties);
+    tested = configuration(properties);
 
     assertThat(tested.getPathMatcher().getClass().isAssignableFrom(PrefixPathMatcher.class), is(true));
     assertThat(tested.getAddComment(), is(false));
@@ -64,6 +60,16 @@ public class ConfigurationTest {
     assertThat(tested.isEnabled(), is(false));
     assertThat(tested.hasTtlSet(), is(false));
     assertThat(tested.isRewritePath(), is(false));
+    assertThat(tested.getGeneratorOptions().size(), is(1));
+    assertThat(tested.getGeneratorOptions().get(Configuration.SELECTOR_OPTION), is("nocache"));
+    assertThat(tested.hasEdgeTtlSet(), is(false));
+    assertThat(tested.hasAltEdgeTtlSet(), is(false));
+    assertThat(tested.getSurrogateControl(), is("content=\"ESI/1.0\""));
+    assertThat(tested.isFragmentCacheEnabled(), is(false));
+    assertThat(tested.getFragmentCacheVary().isEmpty(), is(true));
+    assertThat(tested.getStaleWhileRevalidate(), is(0));
+    assertThat(tested.isRequestCollapsing(), is(false));
+    assertThat(tested.getRequestCollapsingTimeout(), is(1000L));
   }
 
   @Test
@@ -73,15 +79,19 @@ public class ConfigurationTest {
     properties.put("include-filter.config.include-type", "ESI");
     properties.put("include-filter.config.add_comment", true);
     properties.put("include-filter.config.ttl", 60);
+    properties.put("include-filter.config.edge-ttl", "600");
     properties.put("include-filter.config.enabled", true);
     properties.put("include-filter.config.resource-types",
-        new String[] { "test/resource/type", "test/resource/type2" });
+        new String[] { "test/resource/type", "test/resource/type2", "test/dynamic/*" });
     properties.put("include-filter.config.required_header", "CustomHeader: value");
     properties.put("include-filter.config.selector", "cache");
     properties.put("include-filter.config.rewrite", true);
     properties.put("include-filter.config.ignoreUrlParams", new String[] { "query", "query2" });
+    properties.put("include-filter.config.esi.surrogate-control", "");
+    properties.put("include-filter.config.esi.alt-edge-ttl", "86400");
+    properties.put("include-filter.config.generator-options", new String[] { "lazy=true", " margin = 10px ", "flag", "", "alt-selector=stale" });
 
-    context.registerInjectActivateService(tested, properties);
+    tested = configuration(properties);
 
     assertThat(tested.getPathMatcher().getClass().isAssignableFrom(PrefixPathMatcher.class), is(true));
     assertThat(tested.getAddComment(), is(true));
@@ -95,5 +105,74 @@ public class ConfigurationTest {
     assertThat(tested.isRewritePath(), is(true));
     assertThat(tested.isSupportedResourceType("test/resource/type"), is(true));
     assertThat(tested.isSupportedResourceType("test/resource/type2"), is(true));
+    assertThat(tested.isSupportedResourceType("test/dynamic/type"), is(true));
+    assertThat(tested.isSupportedResourceType("test/resource/type3"), is(false));
+    assertThat(tested.getSurrogateControl(), nullValue());
+    assertThat(tested.getEdgeTtl(), is(600));
+    assertThat(tested.getAltEdgeTtl(), is(86400));
+    assertThat(tested.getGeneratorOptions().size(), is(6));
+    assertThat(tested.getGeneratorOptions().get(Configuration.SELECTOR_OPTION), is("cache"));
+    assertThat(tested.getGeneratorOptions().get(Configuration.ALT_SELECTOR_OPTION), is("stale"));
+    assertThat(tested.getGeneratorOptions().get(Configuration.TTL_OPTION), is("60"));
+    assertThat(tested.getGeneratorOptions().get("lazy"), is("true"));
+    assertThat(tested.getGeneratorOptions().get("margin"), is("10px"));
+    assertThat(tested.getGeneratorOptions().get("flag"), is(""));
+  }
+
+  @Test
+  public void shouldNegotiateIncludeType() throws Exception {
+    Map<String, Object> properties = new HashMap<String, Object>();
+    properties.put("include-filter.config.include-type", "JSI");
+    properties.put("include-filter.config.include-type.negotiation",
+        new String[] { "ESI;Surrogate-Capability=ESI/1.0", "SSI;Server-Agent=Communique-Dispatcher", "NGINX-SSI;X-Nginx" });
+
+    tested = configuration(properties);
+
+    assertThat(tested.getIncludeTypeName(request(null, null)), is("JSI"));
+    assertThat(tested.getIncludeTypeName(request("Surrogate-Capability", "cdn=\"Surrogate/1.0 esi/1.0\"")), is("ESI"));
+    assertThat(tested.getIncludeTypeName(request("Surrogate-Capability", "cdn=\"Surrogate/1.0\"")), is("JSI"));
+    assertThat(tested.getIncludeTypeName(request("Server-Agent", "Communique-Dispatcher")), is("SSI"));
+    assertThat(tested.getIncludeTypeName(request("X-Nginx", "")), is("NGINX-SSI"));
+    assertThat(tested.getNegotiationHeaders(), is(Arrays.asList("Surrogate-Capability", "Server-Agent", "X-Nginx")));
+  }
+
+  @Test
+  public void shouldEnableFragmentCacheOnlyWithTtl() throws Exception {
+    Map<String, Object> properties = new HashMap<String, Object>();
+    properties.put("include-filter.config.fragment-cache", true);
+    properties.put("include-filter.config.fragment-cache.vary", new String[] { " Accept-Language ", "" });
+    properties.put("include-filter.config.fragment-cache.stale-while-revalidate", 30);
+
+    tested = configuration(properties);
+
+    assertThat(tested.isFragmentCacheEnabled(), is(false));
+    assertThat(tested.getFragmentCacheVary(), is(Arrays.asList("Accept-Language")));
+    assertThat(tested.getStaleWhileRevalidate(), is(30));
+
+    properties.put("include-filter.config.ttl", "60");
+    final Configuration withTtl = configuration(properties);
+
+    assertThat(withTtl.isFragmentCacheEnabled(), is(true));
+  }
+
+  @Test
+  public void shouldSetRequestCollapsing() throws Exception {
+    Map<String, Object> properties = new HashMap<String, Object>();
+    properties.put("include-filter.config.request-collapsing", true);
+    properties.put("include-filter.config.request-collapsing.timeout", -1L);
+
+    tested = configuration(properties);
+
+    assertThat(tested.isRequestCollapsing(), is(true));
+    assertThat(tested.getRequestCollapsingTimeout(), is(0L));
+    assertThat(tested.isFragmentCacheEnabled(), is(false));
+  }
+
+  private static SlingHttpServletRequest request(String header, String value) {
+    final SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+    if (header != null) {
+      when(request.getHeader(header)).thenReturn(value);
+    }
+    return request;
   }
 }
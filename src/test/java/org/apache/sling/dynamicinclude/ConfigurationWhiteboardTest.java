@@ -18,16 +18,28 @@
  */
 package org.apache.sling.dynamicinclude;
 
+import static org.apache.sling.dynamicinclude.ConfigurationSupport.registerConfiguration;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.dynamicinclude.resourcetype.ResourceTypeHierarchy;
 import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
 import org.junit.Before;
 import org.junit.Rule;
@@ -35,6 +47,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.osgi.framework.Constants;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ConfigurationWhiteboardTest {
@@ -53,21 +66,35 @@ public class ConfigurationWhiteboardTest {
   @Mock
   private RequestPathInfo requestPathInfo;
 
+  @Mock
+  private ResourceTypeHierarchy resourceTypeHierarchy;
+
   @Before
   public void setUp() throws Exception {
     tested = new ConfigurationWhiteboard();
+    context.registerService(ResourceTypeHierarchy.class, resourceTypeHierarchy);
     when(request.getRequestPathInfo()).thenReturn(requestPathInfo);
     when(requestPathInfo.getResourcePath()).thenReturn(TEST_RESOURCE_PATH);
   }
 
   private Configuration buildConfiguration(boolean enabled, String pathRegex, String[] resourceTypes) {
-    Configuration configuration = new Configuration();
+    return buildConfiguration(enabled, pathRegex, resourceTypes, 0);
+  }
+
+  private Configuration buildConfiguration(boolean enabled, String pathRegex, String[] resourceTypes, int ranking) {
+    return buildConfiguration(enabled, pathRegex, resourceTypes, ranking, false);
+  }
+
+  private Configuration buildConfiguration(boolean enabled, String pathRegex, String[] resourceTypes, int ranking,
+      boolean matchSuperTypes) {
     Map<String, Object> properties = new HashMap<String, Object>();
+    properties.put("include-filter.config.matchSuperTypes", matchSuperTypes);
+    properties.put(Constants.SERVICE_RANKING, ranking);
     properties.put("include-filter.config.enabled", enabled);
     properties.put("include-filter.config.path", pathRegex);
     properties.put("include-filter.config.resource-types", resourceTypes);
     
-    return context.registerInjectActivateService(configuration, properties);
+    return registerConfiguration(context, properties);
   }
 
   @Test
@@ -107,4 +134,165 @@ public class ConfigurationWhiteboardTest {
 
     assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(testConfiguration));
   }
+
+  @Test
+  public void shouldReturnConfigurationMatchingBothPathAndResourceType() throws Exception {
+    buildConfiguration(true, "/content/other", new String[]{TEST_RESOURCE_TYPE});
+    buildConfiguration(true, "/content/test", new String[]{"other/resourceType"});
+    Configuration testConfiguration = buildConfiguration(true, "/content/test",
+        new String[]{"other/resourceType", TEST_RESOURCE_TYPE});
+    context.registerInjectActivateService(tested);
+
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(testConfiguration));
+  }
+
+  @Test
+  public void shouldReturnConfigurationMatchingResourceTypePattern() throws Exception {
+    buildConfiguration(true, "/content", new String[]{"test/other/*"});
+    Configuration testConfiguration = buildConfiguration(true, "/content", new String[]{"test/**/resourceType"});
+    context.registerInjectActivateService(tested);
+
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(testConfiguration));
+    assertThat(tested.getConfiguration(request, "test/component/otherType"), is(nullValue()));
+  }
+
+  @Test
+  public void shouldReturnConfigurationMatchingResourceSuperType() throws Exception {
+    when(resourceTypeHierarchy.getSuperTypes(eq(TEST_RESOURCE_TYPE), any()))
+        .thenReturn(Arrays.asList("test/component/base", "test/component/root"));
+    buildConfiguration(true, "/content", new String[]{"test/component/root"}, 0, true);
+    Configuration testConfiguration = buildConfiguration(true, "/content", new String[]{"test/component/base"}, 0, true);
+    context.registerInjectActivateService(tested);
+
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(testConfiguration));
+  }
+
+  @Test
+  public void shouldNotMatchResourceSuperTypeIfNotEnabled() throws Exception {
+    when(resourceTypeHierarchy.getSuperTypes(eq(TEST_RESOURCE_TYPE), any()))
+        .thenReturn(Arrays.asList("test/component/base"));
+    buildConfiguration(true, "/content", new String[]{"test/component/base"}, 0, false);
+    buildConfiguration(true, "/content/other", new String[]{"test/component/base"}, 0, true);
+    context.registerInjectActivateService(tested);
+
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(nullValue()));
+  }
+
+  @Test
+  public void shouldMatchOnlyResourceTypeWithoutHierarchy() throws Exception {
+    Configuration testConfiguration = buildConfiguration(true, "/content", new String[]{TEST_RESOURCE_TYPE}, 0, true);
+    tested.bindConfigs(buildConfiguration(true, "/content", new String[]{"test/component/base"}, 0, true),
+        Collections.<String, Object>emptyMap());
+    tested.bindConfigs(testConfiguration, Collections.<String, Object>emptyMap());
+
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(testConfiguration));
+    assertThat(tested.getConfiguration(request, "test/component/other"), is(nullValue()));
+    verify(resourceTypeHierarchy, never()).getSuperTypes(anyString(), any());
+  }
+
+  @Test
+  public void shouldPreferConfigurationWithHigherRanking() throws Exception {
+    buildConfiguration(true, "/content", new String[]{TEST_RESOURCE_TYPE}, 0);
+    Configuration ranked = buildConfiguration(true, "/content/test", new String[]{TEST_RESOURCE_TYPE}, 100);
+    buildConfiguration(true, "^/content/.*", new String[]{TEST_RESOURCE_TYPE}, -100);
+    context.registerInjectActivateService(tested);
+
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(ranked));
+  }
+
+  @Test
+  public void shouldPreferOlderConfigurationWhenRankingIsEqual() throws Exception {
+    Configuration first = buildConfiguration(true, "/content", new String[]{TEST_RESOURCE_TYPE});
+    buildConfiguration(true, "/content/test", new String[]{TEST_RESOURCE_TYPE});
+    context.registerInjectActivateService(tested);
+
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(first));
+  }
+
+  @Test
+  public void shouldNotReturnConfigurationAfterItHasBeenUnbound() throws Exception {
+    Configuration testConfiguration = buildConfiguration(true, "^/content.*$", new String[]{TEST_RESOURCE_TYPE});
+    tested.bindConfigs(testConfiguration, Collections.<String, Object>emptyMap());
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(testConfiguration));
+
+    tested.unbindConfigs(testConfiguration);
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(nullValue()));
+  }
+
+  @Test
+  public void shouldReuseResolutionWithinRequest() throws Exception {
+    final Map<String, Object> attributes = withRequestAttributes();
+    buildConfiguration(true, "/content/other", new String[]{TEST_RESOURCE_TYPE});
+    context.registerInjectActivateService(tested);
+
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(nullValue()));
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(nullValue()));
+
+    assertThat(attributes.size(), is(1));
+    verify(request, times(1)).setAttribute(anyString(), eq(attributes.values().iterator().next()));
+  }
+
+  @Test
+  public void shouldDiscardResolutionCacheWhenConfigurationsChange() throws Exception {
+    withRequestAttributes();
+    context.registerInjectActivateService(tested);
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(nullValue()));
+
+    Configuration testConfiguration = buildConfiguration(true, "/content", new String[]{TEST_RESOURCE_TYPE});
+    assertThat(tested.getConfiguration(request, TEST_RESOURCE_TYPE), is(testConfiguration));
+  }
+
+  @Test
+  public void shouldSkipPathMatchingForResourceTypesWhichAreNotConfigured() throws Exception {
+    buildConfiguration(true, "/content", new String[]{TEST_RESOURCE_TYPE});
+    context.registerInjectActivateService(tested);
+
+    assertThat(tested.getConfiguration(request, "other/resourceType"), is(nullValue()));
+    assertThat(tested.getConfiguration(request, null), is(nullValue()));
+    assertThat(tested.getLookupCount(), is(2L));
+    assertThat(tested.getFastPathLookupCount(), is(2L));
+    verify(request, never()).getRequestPathInfo();
+
+    tested.getConfiguration(request, TEST_RESOURCE_TYPE);
+    assertThat(tested.getLookupCount(), is(3L));
+    assertThat(tested.getFastPathLookupCount(), is(2L));
+  }
+
+  @Test
+  public void shouldKeepPatternCandidatesPerResourceType() throws Exception {
+    final Configuration exact = buildConfiguration(true, "/content", new String[]{TEST_RESOURCE_TYPE});
+    final Configuration pattern = buildConfiguration(true, "/content", new String[]{"test/component/*"});
+    final ConfigurationIndex index = new ConfigurationIndex(Arrays.asList(exact, pattern));
+
+    final int[] candidates = index.getCandidates(TEST_RESOURCE_TYPE);
+    assertThat(candidates, is(new int[]{0, 1}));
+    assertThat(index.getCandidates(TEST_RESOURCE_TYPE), sameInstance(candidates));
+    assertThat(index.getCandidates("other/resourceType"), is(nullValue()));
+    assertThat(index.getCandidates("other/resourceType"), is(nullValue()));
+  }
+
+  @Test
+  public void shouldTellIfIncludeTypeIsUsed() throws Exception {
+    buildConfiguration(true, "^/content.*$", new String[]{TEST_RESOURCE_TYPE});
+    context.registerInjectActivateService(tested);
+    assertThat(tested.usesIncludeType("INLINE"), is(false));
+
+    final Map<String, Object> properties = new HashMap<String, Object>();
+    properties.put("include-filter.config.enabled", true);
+    properties.put("include-filter.config.resource-types", new String[]{"test/component/inline"});
+    properties.put("include-filter.config.include-type", "SSI");
+    properties.put("include-filter.config.include-type.negotiation", new String[]{"INLINE;X-Inline"});
+    registerConfiguration(context, properties);
+
+    assertThat(tested.usesIncludeType("INLINE"), is(true));
+    assertThat(tested.usesIncludeType("SSI"), is(true));
+    assertThat(tested.usesIncludeType("ESI"), is(false));
+  }
+
+  private Map<String, Object> withRequestAttributes() {
+    final Map<String, Object> attributes = new HashMap<String, Object>();
+    when(request.getAttribute(anyString())).then(i -> attributes.get(i.getArgument(0)));
+    doAnswer(i -> attributes.put(i.getArgument(0), i.getArgument(1))).when(request).setAttribute(anyString(), any());
+    return attributes;
+  }
 }
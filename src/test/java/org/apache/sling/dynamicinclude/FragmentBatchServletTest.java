@@ -0,0 +1,240 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.NonExistingResource;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.apache.sling.dynamicinclude.impl.FragmentRenderer;
+import org.apache.sling.engine.SlingRequestProcessor;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FragmentBatchServletTest {
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    @Mock
+    private ConfigurationWhiteboard configurationWhiteboard;
+
+    @Mock
+    private SlingRequestProcessor requestProcessor;
+
+    @Mock
+    private Configuration config;
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private SlingHttpServletResponse response;
+
+    @Mock
+    private ResourceResolver resolver;
+
+    private final StringWriter output = new StringWriter();
+
+    @Before
+    public void setUp() throws Exception {
+        when(config.getIncludeSelector()).thenReturn("nocache");
+        when(configurationWhiteboard.getConfiguration(eq(request), startsWith("/content/"), eq("app/component")))
+                .thenReturn(config);
+        when(request.getResourceResolver()).thenReturn(resolver);
+        when(resolver.resolve(eq(request), anyString())).then(invocation -> resolve(invocation.getArgument(1)));
+        when(request.getContextPath()).thenReturn("");
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+        doAnswer(invocation -> {
+            final HttpServletRequest fragmentRequest = invocation.getArgument(0);
+            final HttpServletResponse fragmentResponse = invocation.getArgument(1);
+            if (fragmentRequest.getPathInfo().contains("missing")) {
+                fragmentResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+            } else {
+                fragmentResponse.getWriter().write("<p title=\"" + fragmentRequest.getPathInfo() + "\">\n</p>");
+            }
+            return null;
+        }).when(requestProcessor).processRequest(any(HttpServletRequest.class), any(HttpServletResponse.class), eq(resolver));
+
+        context.registerService(ConfigurationWhiteboard.class, configurationWhiteboard);
+        context.registerService(SlingRequestProcessor.class, requestProcessor);
+        context.registerInjectActivateService(new FragmentRenderer());
+    }
+
+    @Test
+    public void shouldRenderFragmentsAsJson() throws Exception {
+        final FragmentBatchServlet servlet = context.registerInjectActivateService(new FragmentBatchServlet());
+        when(request.getParameterValues(FragmentBatchServlet.URL_PARAMETER)).thenReturn(new String[] {
+                "/content/page/_jcr_content/a.nocache.html",
+                "/content/page/_jcr_content/b%20c.nocache.html",
+                "/content/page/_jcr_content/missing.nocache.html",
+                "/content/page/_jcr_content/plain.html",
+                "/content/page/_jcr_content/a.nocache.html" });
+
+        servlet.doGet(request, response);
+
+        assertThat(output.toString(), is("{"
+                + "\"/content/page/_jcr_content/a.nocache.html\":\"<p title=\\\"/content/page/_jcr_content/a.nocache.html\\\">\\u000a</p>\","
+                + "\"/content/page/_jcr_content/b%20c.nocache.html\":\"<p title=\\\"/content/page/_jcr_content/b c.nocache.html\\\">\\u000a</p>\""
+                + "}"));
+        verify(response).setContentType("application/json");
+    }
+
+    @Test
+    public void shouldRenderFragmentsInParallel() throws Exception {
+        when(resolver.clone(null)).thenReturn(resolver);
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("include-filter.batch.threads", 2);
+        final FragmentBatchServlet servlet = context.registerInjectActivateService(new FragmentBatchServlet(), properties);
+        when(request.getParameterValues(FragmentBatchServlet.URL_PARAMETER)).thenReturn(new String[] {
+                "/content/a.nocache.html", "/content/b.nocache.html", "/content/c.nocache.html" });
+
+        servlet.doGet(request, response);
+
+        assertThat(output.toString(), is("{"
+                + "\"/content/a.nocache.html\":\"<p title=\\\"/content/a.nocache.html\\\">\\u000a</p>\","
+                + "\"/content/b.nocache.html\":\"<p title=\\\"/content/b.nocache.html\\\">\\u000a</p>\","
+                + "\"/content/c.nocache.html\":\"<p title=\\\"/content/c.nocache.html\\\">\\u000a</p>\""
+                + "}"));
+        verify(resolver, times(3)).close();
+    }
+
+    @Test
+    public void shouldRenderOnlyMaximumFragments() throws Exception {
+        final FragmentBatchServlet servlet = context.registerInjectActivateService(new FragmentBatchServlet());
+        final String[] urls = new String[60];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = "/content/c" + i + ".nocache.html";
+        }
+        when(request.getParameterValues(FragmentBatchServlet.URL_PARAMETER)).thenReturn(urls);
+
+        servlet.doGet(request, response);
+
+        assertThat(servlet.getMaxFragments(), is(50));
+        assertThat(output.toString(), containsString("\"/content/c49.nocache.html\":"));
+        assertThat(output.toString(), not(containsString("\"/content/c50.nocache.html\":")));
+        verify(requestProcessor, times(50)).processRequest(any(HttpServletRequest.class), any(HttpServletResponse.class),
+                eq(resolver));
+        verify(response, never()).sendError(anyInt());
+    }
+
+    @Test
+    public void shouldRejectEmptyBatch() throws Exception {
+        final FragmentBatchServlet servlet = context.registerInjectActivateService(new FragmentBatchServlet());
+
+        servlet.doGet(request, response);
+
+        verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST);
+        assertThat(output.toString(), is(""));
+    }
+
+    @Test
+    public void shouldOnlyRenderResourcesOfConfigurations() throws Exception {
+        final FragmentBatchServlet servlet = context.registerInjectActivateService(new FragmentBatchServlet());
+        when(request.getParameterValues(FragmentBatchServlet.URL_PARAMETER)).thenReturn(new String[] {
+                "/content/a.nocache.html",
+                "/apps/secret.nocache.html",
+                "/content/other.nocache.html",
+                "/content/b.html/nocache.html",
+                "/content/missing.nocache.html/app/component.html",
+                "/content/missing.nocache.html/app/other.html" });
+
+        servlet.doGet(request, response);
+
+        assertThat(output.toString(), is("{"
+                + "\"/content/a.nocache.html\":\"<p title=\\\"/content/a.nocache.html\\\">\\u000a</p>\""
+                + "}"));
+        // the synthetic include is rendered, but not found
+        verify(requestProcessor, times(2)).processRequest(any(HttpServletRequest.class), any(HttpServletResponse.class),
+                eq(resolver));
+    }
+
+    @Test
+    public void shouldCloneResolverInRequestThread() throws Exception {
+        final Thread requestThread = Thread.currentThread();
+        final ResourceResolver clone = mock(ResourceResolver.class);
+        when(resolver.clone(null)).then(invocation -> {
+            assertThat(Thread.currentThread(), is(requestThread));
+            return clone;
+        });
+        doAnswer(invocation -> null).when(requestProcessor)
+                .processRequest(any(HttpServletRequest.class), any(HttpServletResponse.class), eq(clone));
+        final FragmentBatchServlet servlet = context.registerInjectActivateService(new FragmentBatchServlet(),
+                Collections.<String, Object>singletonMap("include-filter.batch.threads", 1));
+        when(request.getParameterValues(FragmentBatchServlet.URL_PARAMETER)).thenReturn(new String[] {
+                "/content/a.nocache.html", "/content/b.nocache.html" });
+
+        servlet.doGet(request, response);
+
+        verify(resolver, times(2)).clone(null);
+        verify(clone, times(2)).close();
+    }
+
+    // resources below /content exist and have the app/component type, except the missing ones
+    private Resource resolve(String path) {
+        final int dot = path.indexOf('.');
+        final String resourcePath = dot < 0 ? path : path.substring(0, dot);
+        if (resourcePath.contains("missing")) {
+            return new NonExistingResource(resolver, path);
+        }
+        final ResourceMetadata metadata = new ResourceMetadata();
+        metadata.setResolutionPathInfo(dot < 0 ? null : path.substring(dot));
+        final String resourceType = resourcePath.startsWith("/content/other") ? "app/other" : "app/component";
+        return new SyntheticResource(resolver, metadata, resourceType) {
+            @Override
+            public String getPath() {
+                return resourcePath;
+            }
+        };
+    }
+}
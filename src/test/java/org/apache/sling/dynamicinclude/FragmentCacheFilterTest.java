@@ -0,0 +1,382 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude;
+
+import static org.apache.sling.dynamicinclude.ConfigurationSupport.configuration;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.WriteListener;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.dynamicinclude.impl.FragmentCache;
+import org.apache.sling.dynamicinclude.impl.RequestCollapser;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FragmentCacheFilterTest {
+
+    private static final String URL = "/content/page/_jcr_content/header.nocache.html";
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    @Mock
+    private ConfigurationWhiteboard configurationWhiteboard;
+
+    @Mock
+    private FilterChain chain;
+
+    private Filter tested;
+
+    private FragmentCache fragmentCache;
+
+    private RequestCollapser requestCollapser;
+
+    private final CountDownLatch firstStarted = new CountDownLatch(1);
+
+    private final CountDownLatch firstReleased = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        context.registerService(ConfigurationWhiteboard.class, configurationWhiteboard);
+        fragmentCache = context.registerInjectActivateService(new FragmentCache());
+        requestCollapser = context.registerInjectActivateService(new RequestCollapser());
+        tested = context.registerInjectActivateService(new FragmentCacheFilter());
+        doAnswer(invocation -> {
+            final SlingHttpServletRequest request = invocation.getArgument(0);
+            final SlingHttpServletResponse response = invocation.getArgument(1);
+            response.setContentType("text/html");
+            response.getWriter().write("header of " + request.getResourceResolver().getUserID());
+            return null;
+        }).when(chain).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+    }
+
+    @Test
+    public void shouldServeCachedFragment() throws Exception {
+        withConfiguration();
+
+        assertThat(render("anonymous"), is("header of anonymous"));
+        assertThat(replay("anonymous"), is("header of anonymous"));
+
+        verify(chain, times(1)).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+        assertThat(fragmentCache.getHitCount(), is(1L));
+        assertThat(fragmentCache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void shouldCacheFragmentsPerUser() throws Exception {
+        withConfiguration();
+
+        assertThat(render("alice"), is("header of alice"));
+        assertThat(render("bob"), is("header of bob"));
+        assertThat(replay("alice"), is("header of alice"));
+        assertThat(replay("bob"), is("header of bob"));
+
+        verify(chain, times(2)).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+    }
+
+    @Test
+    public void shouldNotCachePrivateFragments() throws Exception {
+        withConfiguration();
+        withHeader("Cache-Control", "max-age=60, private");
+
+        assertThat(render("alice"), is("header of alice"));
+        assertThat(render("alice"), is("header of alice"));
+
+        verify(chain, times(2)).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+        assertThat(fragmentCache.getSize(), is(0L));
+    }
+
+    @Test
+    public void shouldNotCacheFragmentsVaryingOnHeadersOutsideTheKey() throws Exception {
+        withConfiguration();
+        withHeader("Vary", "Cookie");
+
+        render("anonymous");
+        render("anonymous");
+
+        verify(chain, times(2)).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+    }
+
+    @Test
+    public void shouldCacheFragmentsVaryingOnKeyHeaders() throws Exception {
+        withConfiguration("include-filter.config.fragment-cache.vary", "Accept-Language");
+        withHeader("Vary", "accept-language");
+
+        assertThat(render("anonymous", "Accept-Language", "de"), is("header of anonymous"));
+        assertThat(replay("anonymous", "Accept-Language", "de"), is("header of anonymous"));
+        assertThat(render("anonymous", "Accept-Language", "fr"), is("header of anonymous"));
+
+        verify(chain, times(2)).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+    }
+
+    @Test
+    public void shouldNotCacheOtherRequests() throws Exception {
+        withConfiguration();
+        final SlingHttpServletRequest post = mock(SlingHttpServletRequest.class);
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        final Resource resource = mock(Resource.class);
+        when(resource.getResourceType()).thenReturn("app/header");
+        when(post.getResource()).thenReturn(resource);
+        final RequestPathInfo pathInfo = mock(RequestPathInfo.class);
+        when(pathInfo.getSelectors()).thenReturn(new String[] { "nocache" });
+        when(post.getRequestPathInfo()).thenReturn(pathInfo);
+        when(post.getMethod()).thenReturn("POST");
+        doNothing().when(chain).doFilter(post, response);
+
+        tested.doFilter(post, response, chain);
+
+        verify(chain).doFilter(post, response);
+        assertThat(fragmentCache.getMissCount(), is(0L));
+    }
+
+    @Test
+    public void shouldCollapseConcurrentRequests() throws Exception {
+        withConfiguration("include-filter.config.request-collapsing", true);
+        withBlockingFirstRender(null);
+
+        final CompletableFuture<String> first = async(() -> render("alice"));
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS), is(true));
+        final Thread[] waiting = new Thread[1];
+        final CompletableFuture<String> second = async(() -> {
+            waiting[0] = Thread.currentThread();
+            return replay("alice");
+        });
+        awaitWaiting(waiting);
+        firstReleased.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is("header of alice"));
+        assertThat(second.get(5, TimeUnit.SECONDS), is("header of alice"));
+        verify(chain, times(1)).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+        assertThat(requestCollapser.getCollapsedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldRenderOnItsOwnIfCollapsedResponseCantBeShared() throws Exception {
+        withConfiguration("include-filter.config.request-collapsing", true);
+        withBlockingFirstRender("private");
+
+        final CompletableFuture<String> first = async(() -> render("alice"));
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS), is(true));
+        final Thread[] waiting = new Thread[1];
+        final CompletableFuture<String> second = async(() -> {
+            waiting[0] = Thread.currentThread();
+            return render("alice");
+        });
+        awaitWaiting(waiting);
+        firstReleased.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is("header of alice"));
+        assertThat(second.get(5, TimeUnit.SECONDS), is("header of alice"));
+        verify(chain, times(2)).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+        assertThat(requestCollapser.getCollapsedCount(), is(0L));
+        assertThat(requestCollapser.getTimeoutCount(), is(0L));
+    }
+
+    @Test
+    public void shouldRenderOnItsOwnAfterCollapsingTimeout() throws Exception {
+        withConfiguration("include-filter.config.request-collapsing", true,
+                "include-filter.config.request-collapsing.timeout", 50L);
+        withBlockingFirstRender(null);
+
+        final CompletableFuture<String> first = async(() -> render("alice"));
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(render("alice"), is("header of alice"));
+        firstReleased.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is("header of alice"));
+        verify(chain, times(2)).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+        assertThat(requestCollapser.getTimeoutCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNotCollapseRequestsOfOtherUsers() throws Exception {
+        withConfiguration("include-filter.config.request-collapsing", true);
+        withBlockingFirstRender(null);
+
+        final CompletableFuture<String> first = async(() -> render("alice"));
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(render("bob"), is("header of bob"));
+        firstReleased.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is("header of alice"));
+        assertThat(requestCollapser.getCollapsedCount(), is(0L));
+        assertThat(requestCollapser.getTimeoutCount(), is(0L));
+    }
+
+    /**
+     * The render of alice waits to be released, marking its response with the given cache control.
+     */
+    private void withBlockingFirstRender(String cacheControl) throws Exception {
+        doAnswer(invocation -> {
+            final SlingHttpServletRequest request = invocation.getArgument(0);
+            final SlingHttpServletResponse response = invocation.getArgument(1);
+            final String user = request.getResourceResolver().getUserID();
+            if ("alice".equals(user) && firstStarted.getCount() > 0) {
+                firstStarted.countDown();
+                firstReleased.await(5, TimeUnit.SECONDS);
+                if (cacheControl != null) {
+                    response.setHeader("Cache-Control", cacheControl);
+                }
+            }
+            response.getWriter().write("header of " + user);
+            return null;
+        }).when(chain).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+    }
+
+    private static <T> CompletableFuture<T> async(Callable<T> request) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        new Thread(() -> {
+            try {
+                result.complete(request.call());
+            } catch (Exception | AssertionError e) {
+                result.completeExceptionally(e);
+            }
+        }).start();
+        return result;
+    }
+
+    /**
+     * Waits for the thread to wait for the render of another request.
+     */
+    private static void awaitWaiting(Thread[] thread) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while ((thread[0] == null || thread[0].getState() != Thread.State.TIMED_WAITING)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void withConfiguration(Object... properties) {
+        final Object[] all = new Object[properties.length + 6];
+        all[0] = "include-filter.config.resource-types";
+        all[1] = "app/header";
+        all[2] = "include-filter.config.ttl";
+        all[3] = "60";
+        all[4] = "include-filter.config.fragment-cache";
+        all[5] = true;
+        System.arraycopy(properties, 0, all, 6, properties.length);
+        final Configuration config = configuration(all);
+        when(configurationWhiteboard.getConfiguration(any(SlingHttpServletRequest.class), anyString())).thenReturn(config);
+    }
+
+    private void withHeader(String name, String value) throws Exception {
+        doAnswer(invocation -> {
+            final SlingHttpServletRequest request = invocation.getArgument(0);
+            final SlingHttpServletResponse response = invocation.getArgument(1);
+            response.setHeader(name, value);
+            response.getWriter().write("header of " + request.getResourceResolver().getUserID());
+            return null;
+        }).when(chain).doFilter(any(ServletRequest.class), any(SlingHttpServletResponse.class));
+    }
+
+    /**
+     * Requests the fragment, which has to be rendered.
+     */
+    private String render(String user, String... headers) throws Exception {
+        final StringWriter output = new StringWriter();
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+        tested.doFilter(request(user, headers), response, chain);
+        return output.toString();
+    }
+
+    /**
+     * Requests the fragment, which has to be served from the cache.
+     */
+    private String replay(String user, String... headers) throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(outputStream(output));
+        tested.doFilter(request(user, headers), response, chain);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static SlingHttpServletRequest request(String user, String... headers) {
+        final SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        final Resource resource = mock(Resource.class);
+        when(resource.getResourceType()).thenReturn("app/header");
+        when(request.getResource()).thenReturn(resource);
+        final RequestPathInfo pathInfo = mock(RequestPathInfo.class);
+        when(pathInfo.getSelectors()).thenReturn(new String[] { "nocache" });
+        when(request.getRequestPathInfo()).thenReturn(pathInfo);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getServerName()).thenReturn("localhost");
+        when(request.getRequestURI()).thenReturn(URL);
+        final ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getUserID()).thenReturn(user);
+        when(request.getResourceResolver()).thenReturn(resolver);
+        for (int i = 0; i < headers.length; i += 2) {
+            when(request.getHeaders(headers[i])).thenReturn(Collections.enumeration(Collections.singletonList(headers[i + 1])));
+        }
+        return request;
+    }
+
+    private static ServletOutputStream outputStream(final ByteArrayOutputStream bytes) {
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                bytes.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+    }
+}
@@ -0,0 +1,193 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.dynamicinclude.api.IncludeGenerator;
+import org.apache.sling.dynamicinclude.generator.IncludeGeneratorWhiteboard;
+import org.apache.sling.dynamicinclude.impl.IncludeUrlCache;
+import org.apache.sling.dynamicinclude.impl.MappingCache;
+import org.apache.sling.dynamicinclude.impl.TopLevelResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IncludeTagFilterTest {
+
+    private static final String URL = "/content/page/jcr:content/par/component.nocache.html";
+
+    private static final String ESI = "content=\"ESI/1.0\"";
+
+    @Mock
+    private ConfigurationWhiteboard configurationWhiteboard;
+
+    @Mock
+    private IncludeGeneratorWhiteboard generatorWhiteboard;
+
+    @Mock
+    private IncludeUrlCache includeUrlCache;
+
+    @Mock
+    private MappingCache mappingCache;
+
+    @InjectMocks
+    private IncludeTagFilter tested;
+
+    @Mock
+    private Configuration config;
+
+    @Mock
+    private IncludeGenerator generator;
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private SlingHttpServletResponse response;
+
+    @Mock
+    private HttpServletResponse topLevelResponse;
+
+    @Mock
+    private Resource resource;
+
+    @Mock
+    private RequestPathInfo pathInfo;
+
+    @Mock
+    private FilterChain chain;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        when(request.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(request).setAttribute(anyString(), any());
+        when(request.getResource()).thenReturn(resource);
+        when(request.getRequestPathInfo()).thenReturn(pathInfo);
+        when(resource.getResourceType()).thenReturn("app/component");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        when(configurationWhiteboard.getConfiguration(request, "app/component")).thenReturn(config);
+        when(includeUrlCache.get(any(IncludeUrlCache.Key.class))).thenReturn(URL);
+        when(config.getRequiredHeader()).thenReturn("");
+        when(config.isDisableIgnoreUrlParams()).thenReturn(true);
+        TopLevelResponse.register(request, topLevelResponse);
+    }
+
+    @Test
+    public void shouldMarkPageWithEsiIncludes() throws Exception {
+        withGenerator("ESI");
+        when(config.getSurrogateControl()).thenReturn(ESI);
+
+        tested.doFilter(request, response, chain);
+
+        verify(topLevelResponse).setHeader(TopLevelResponse.SURROGATE_CONTROL, ESI);
+        verify(generator).writeInclude(eq(request), eq(URL), anyMap(), any(Writer.class));
+        verify(chain, never()).doFilter(request, response);
+    }
+
+    @Test
+    public void shouldRenderInPlaceIfCommittedPageCantBeMarked() throws Exception {
+        withGenerator("ESI");
+        when(config.getSurrogateControl()).thenReturn(ESI);
+        when(topLevelResponse.isCommitted()).thenReturn(true);
+
+        tested.doFilter(request, response, chain);
+
+        verify(generator, never()).writeInclude(any(SlingHttpServletRequest.class), anyString(), anyMap(), any(Writer.class));
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void shouldNotMarkPageWithOtherIncludes() throws Exception {
+        withGenerator("SSI");
+        when(config.getSurrogateControl()).thenReturn(ESI);
+
+        tested.doFilter(request, response, chain);
+
+        verify(generator).writeInclude(eq(request), eq(URL), anyMap(), any(Writer.class));
+        verify(topLevelResponse, never()).setHeader(anyString(), anyString());
+    }
+
+    @Test
+    public void shouldVaryOnNegotiationHeaders() throws Exception {
+        withNegotiatedGenerator("ESI");
+
+        tested.doFilter(request, response, chain);
+
+        verify(topLevelResponse).setHeader(TopLevelResponse.VARY, "Surrogate-Capability");
+        verify(generator).writeInclude(eq(request), eq(URL), anyMap(), any(Writer.class));
+    }
+
+    @Test
+    public void shouldUseIncludeTypeIfCommittedPageCantVary() throws Exception {
+        withNegotiatedGenerator("ESI");
+        final IncludeGenerator jsiGenerator = mock(IncludeGenerator.class);
+        when(config.getIncludeTypeName()).thenReturn("JSI");
+        when(generatorWhiteboard.getGenerator("JSI")).thenReturn(jsiGenerator);
+        when(topLevelResponse.isCommitted()).thenReturn(true);
+
+        tested.doFilter(request, response, chain);
+
+        verify(topLevelResponse, never()).setHeader(anyString(), anyString());
+        verify(generator, never()).writeInclude(any(SlingHttpServletRequest.class), anyString(), anyMap(), any(Writer.class));
+        verify(jsiGenerator).writeInclude(eq(request), eq(URL), anyMap(), any(Writer.class));
+    }
+
+    private void withNegotiatedGenerator(String type) {
+        when(config.getIncludeTypeName(request)).thenReturn(type);
+        when(config.getNegotiationHeaders()).thenReturn(Collections.singletonList("Surrogate-Capability"));
+        when(generatorWhiteboard.getGenerator(type)).thenReturn(generator);
+    }
+
+    private void withGenerator(String type) {
+        when(config.getIncludeTypeName(request)).thenReturn(type);
+        when(config.getNegotiationHeaders()).thenReturn(Collections.<String>emptyList());
+        when(generatorWhiteboard.getGenerator(type)).thenReturn(generator);
+        when(generator.getType()).thenReturn(type);
+    }
+}
@@ -0,0 +1,177 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import javax.servlet.FilterChain;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.dynamicinclude.impl.FragmentRenderer;
+import org.apache.sling.dynamicinclude.impl.FragmentRequest;
+import org.apache.sling.dynamicinclude.impl.StitchingResponse;
+import org.apache.sling.dynamicinclude.impl.StitchingWriter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InlineIncludeFilterTest {
+
+    @Mock
+    private ConfigurationWhiteboard configurationWhiteboard;
+
+    @Mock
+    private FragmentRenderer renderer;
+
+    @InjectMocks
+    private InlineIncludeFilter tested;
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private SlingHttpServletResponse response;
+
+    @Mock
+    private FilterChain chain;
+
+    private final StringWriter output = new StringWriter();
+
+    @Test
+    public void shouldStitchFragmentsInDocumentOrder() throws Exception {
+        withInlineIncludes(1000);
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        final CompletableFuture<String> second = CompletableFuture.completedFuture("[2]");
+        doAnswer(invocation -> {
+            final StitchingResponse stitchingResponse = invocation.getArgument(1);
+            verify(request).setAttribute(StitchingResponse.class.getName(), stitchingResponse);
+            final PrintWriter writer = stitchingResponse.getWriter();
+            writer.write("<header>" + stitchingResponse.addFragment(first) + "<main>");
+            writer.write(stitchingResponse.addFragment(second) + "<footer>");
+            new Thread(() -> first.complete("[1]")).start();
+            return null;
+        }).when(chain).doFilter(eq(request), any(StitchingResponse.class));
+
+        tested.doFilter(request, response, chain);
+
+        assertEquals("<header>[1]<main>[2]<footer>", output.toString());
+        verify(renderer).join(Arrays.asList(first, second));
+    }
+
+    @Test
+    public void shouldLeaveOutFragmentsNotRenderedInTime() throws Exception {
+        withInlineIncludes(10);
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        doAnswer(invocation -> {
+            final StitchingResponse stitchingResponse = invocation.getArgument(1);
+            stitchingResponse.getWriter().write("a" + stitchingResponse.addFragment(slow) + "b");
+            return null;
+        }).when(chain).doFilter(eq(request), any(StitchingResponse.class));
+
+        tested.doFilter(request, response, chain);
+
+        assertEquals("ab", output.toString());
+        assertEquals(true, slow.isCancelled());
+        verify(renderer).join(Collections.singletonList(slow));
+    }
+
+    @Test
+    public void shouldJoinFragmentsIfRequestFails() throws Exception {
+        withInlineIncludes(10);
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        doAnswer(invocation -> {
+            final StitchingResponse stitchingResponse = invocation.getArgument(1);
+            stitchingResponse.addFragment(slow);
+            throw new IllegalStateException("failed");
+        }).when(chain).doFilter(eq(request), any(StitchingResponse.class));
+
+        try {
+            tested.doFilter(request, response, chain);
+            fail("The exception of the request is thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+
+        assertEquals(true, slow.isCancelled());
+        verify(renderer).join(Collections.singletonList(slow));
+    }
+
+    @Test
+    public void shouldWritePagesWithoutFragmentsStraight() throws Exception {
+        withInlineIncludes(10);
+        doAnswer(invocation -> {
+            final StitchingResponse stitchingResponse = invocation.getArgument(1);
+            stitchingResponse.getWriter().write("a" + StitchingWriter.marker("1"));
+            assertEquals("a" + StitchingWriter.marker("1"), output.toString());
+            return null;
+        }).when(chain).doFilter(eq(request), any(StitchingResponse.class));
+
+        tested.doFilter(request, response, chain);
+
+        assertEquals("a" + StitchingWriter.marker("1"), output.toString());
+        verify(renderer).join(Collections.<Future<String>>emptyList());
+    }
+
+    @Test
+    public void shouldNotWrapResponseOfFragments() throws Exception {
+        when(configurationWhiteboard.usesIncludeType("INLINE")).thenReturn(true);
+        when(request.getAttribute(FragmentRequest.class.getName())).thenReturn(Boolean.TRUE);
+
+        tested.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        verify(request, never()).setAttribute(anyString(), any());
+    }
+
+    @Test
+    public void shouldNotWrapResponseWithoutInlineIncludes() throws Exception {
+        when(configurationWhiteboard.usesIncludeType("INLINE")).thenReturn(false);
+
+        tested.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        verify(request, never()).setAttribute(anyString(), any());
+        verify(renderer, never()).join(any());
+    }
+
+    private void withInlineIncludes(long timeout) throws Exception {
+        when(configurationWhiteboard.usesIncludeType("INLINE")).thenReturn(true);
+        when(renderer.getTimeout()).thenReturn(timeout);
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+    }
+}
@@ -0,0 +1,90 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.generator.types;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.dynamicinclude.Configuration;
+import org.junit.Test;
+
+public class EsiGeneratorTest {
+
+    private final EsiGenerator generator = new EsiGenerator();
+
+    @Test
+    public void writesEscapedInclude() throws IOException {
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/page.nocache.html?a=1&b=\"2\"", writer);
+        assertEquals("<esi:include src=\"/content/page.nocache.html?a=1&amp;b=&quot;2&quot;\"/>", writer.toString());
+    }
+
+    @Test
+    public void getIncludeMatchesWrittenInclude() throws IOException {
+        final String url = "/content/$page.nocache.html?a=<1>";
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, url, writer);
+        assertEquals(writer.toString(), generator.getInclude(null, url));
+    }
+
+    @Test
+    public void writesOnerrorAttribute() throws IOException {
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/page/_jcr_content/teaser.nocache.html",
+                Collections.singletonMap(EsiGenerator.ONERROR_OPTION, "continue"), writer);
+        assertEquals("<esi:include src=\"/content/page/_jcr_content/teaser.nocache.html\" onerror=\"continue\"/>",
+                writer.toString());
+    }
+
+    @Test
+    public void writesOnerrorAndAltAttributes() throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(Configuration.SELECTOR_OPTION, "nocache");
+        options.put(EsiGenerator.ONERROR_OPTION, "continue");
+        options.put(Configuration.ALT_SELECTOR_OPTION, "stale");
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/page/_jcr_content/teaser.nocache.html/suffix.nocache.html", options, writer);
+        assertEquals("<esi:include src=\"/content/page/_jcr_content/teaser.nocache.html/suffix.nocache.html\""
+                + " alt=\"/content/page/_jcr_content/teaser.nocache.stale.html/suffix.nocache.html\""
+                + " onerror=\"continue\"/>", writer.toString());
+    }
+
+    @Test
+    public void skipsAltWithoutSelector() throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(Configuration.SELECTOR_OPTION, "nocache");
+        options.put(Configuration.ALT_SELECTOR_OPTION, "stale");
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/page.html", options, writer);
+        assertEquals("<esi:include src=\"/content/page.html\"/>", writer.toString());
+    }
+
+    @Test
+    public void writesPlainIncludeWithoutOptions() throws IOException {
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/page.nocache.html", Collections.<String, String>emptyMap(), writer);
+        assertEquals(generator.getInclude(null, "/content/page.nocache.html"), writer.toString());
+    }
+}
@@ -0,0 +1,106 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.generator.types;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.CompletableFuture;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.dynamicinclude.impl.FragmentRenderer;
+import org.apache.sling.dynamicinclude.impl.StitchingResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InlineGeneratorTest {
+
+    private static final String URL = "/content/page/jcr:content/par/component.nocache.html";
+
+    @Mock
+    private FragmentRenderer renderer;
+
+    @InjectMocks
+    private InlineGenerator generator;
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private SlingHttpServletResponse response;
+
+    @Mock
+    private ResourceResolver resolver;
+
+    @Before
+    public void setUp() {
+        when(request.getResourceResolver()).thenReturn(resolver);
+    }
+
+    @Test
+    public void writesMarkerStitchedWithFragmentRenderedInBackground() throws IOException {
+        final StringWriter output = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+        final StitchingResponse stitchingResponse = new StitchingResponse(response);
+        when(request.getAttribute(StitchingResponse.class.getName())).thenReturn(stitchingResponse);
+        when(renderer.submit(request, resolver, URL)).thenReturn(CompletableFuture.completedFuture("[component]"));
+
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(request, URL, writer);
+        stitchingResponse.getWriter().write("a" + writer + "b");
+        stitchingResponse.finish(1000);
+
+        assertEquals("a[component]b", output.toString());
+        verify(renderer, never()).render(any(HttpServletRequest.class), any(ResourceResolver.class), anyString());
+    }
+
+    @Test
+    public void rendersSynchronouslyWithoutStitchingResponse() throws IOException {
+        when(renderer.render(request, resolver, URL)).thenReturn("[component]");
+
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(request, URL, writer);
+
+        assertEquals("[component]", writer.toString());
+        verify(renderer, never()).submit(any(HttpServletRequest.class), any(ResourceResolver.class), anyString());
+    }
+
+    @Test
+    public void writesNothingIfFragmentCantBeRendered() throws IOException {
+        when(renderer.render(request, resolver, URL)).thenReturn(null);
+
+        assertEquals("", generator.getInclude(request, URL));
+    }
+}
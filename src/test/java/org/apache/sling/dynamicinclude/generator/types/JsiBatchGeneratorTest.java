@@ -0,0 +1,92 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.generator.types;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.dynamicinclude.FragmentBatchServlet;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.osgi.service.component.ComponentContext;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JsiBatchGeneratorTest {
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private ComponentContext context;
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private FragmentBatchServlet batchServlet;
+
+    @InjectMocks
+    private JsiBatchGenerator generator;
+
+    @Before
+    public void setUp() {
+        when(context.getBundleContext().getBundle().getResource("generators/javascript-batch.html"))
+                .thenReturn(getClass().getClassLoader().getResource("generators/javascript-batch.html"));
+        generator.activate(context);
+
+        final Map<String, Object> attributes = new HashMap<>();
+        when(request.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(request).setAttribute(anyString(), any());
+        when(request.getContextPath()).thenReturn("/ctx");
+        when(batchServlet.getMaxFragments()).thenReturn(7);
+    }
+
+    @Test
+    public void shouldWriteLoaderOnlyOnce() {
+        final String first = generator.getInclude(request, "/content/a.nocache.html");
+        final String second = generator.getInclude(request, "/content/b.nocache.html");
+
+        assertThat(first, containsString("<script"));
+        assertThat(first, containsString("\"\\/ctx" + FragmentBatchServlet.PATH.replace("/", "\\/") + "?\""));
+        assertThat(first, containsString("maxFragments = 7;"));
+        assertThat(first, not(containsString("${")));
+        assertThat(second, not(containsString("<script")));
+        assertThat(second.startsWith("<div id=\"dynamic_include_filter_div_"), is(true));
+    }
+
+    @Test
+    public void shouldEscapeUrlInPlaceholder() {
+        final String include = generator.getInclude(request, "/content/a.nocache.html?a=\"b\"&c=<d>");
+
+        assertThat(include, containsString(" data-sdi-url=\"/content/a.nocache.html?a=&quot;b&quot;&amp;c=&lt;d&gt;\"></div>"));
+    }
+}
@@ -0,0 +1,217 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.generator.types;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.dynamicinclude.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.osgi.service.component.ComponentContext;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JsiGeneratorTest {
+
+    private static final Pattern DIV_ID = Pattern.compile("<div id=\"([^\"]+)\">");
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private ComponentContext context;
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private SlingHttpServletRequest otherRequest;
+
+    @Mock
+    private Resource resource;
+
+    private final JsiGenerator generator = new JsiGenerator();
+
+    @Before
+    public void setUp() {
+        when(context.getBundleContext().getBundle().getResource("generators/javascript.html"))
+                .thenReturn(getClass().getClassLoader().getResource("generators/javascript.html"));
+        when(context.getBundleContext().getBundle().getResource("generators/javascript-lazy.html"))
+                .thenReturn(getClass().getClassLoader().getResource("generators/javascript-lazy.html"));
+        generator.activate(context);
+        givenAttributes(request);
+        givenAttributes(otherRequest);
+    }
+
+    @Test
+    public void shouldReplaceAllPlaceholders() throws IOException {
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(request, "/content/page/_jcr_content/par/teaser.nocache.html", writer);
+
+        final String include = writer.toString();
+        assertThat(include, containsString("encodeURI(\"\\/content\\/page\\/_jcr_content\\/par\\/teaser.nocache.html\")"));
+        assertThat(include, containsString("document.getElementById('" + divId(include) + "')"));
+        assertThat(include, not(containsString("${")));
+    }
+
+    @Test
+    public void shouldGenerateUniqueIdsPerRequest() {
+        final String first = divId(generator.getInclude(request, "/a.nocache.html"));
+        final String second = divId(generator.getInclude(request, "/b.nocache.html"));
+        final String other = divId(generator.getInclude(otherRequest, "/a.nocache.html"));
+
+        assertNotEquals(first, second);
+        assertNotEquals(first, other);
+        assertEquals(first.substring(0, first.lastIndexOf('_')), second.substring(0, second.lastIndexOf('_')));
+    }
+
+    @Test
+    public void shouldEscapeUrlLikeCommonsLang() {
+        final String url = "/content/it's/\"quoted\"/\\/\u00E4\u20AC\t\u007F.html";
+        final String include = generator.getInclude(request, url);
+
+        assertThat(include, containsString("encodeURI(\"" + StringEscapeUtils.escapeEcmaScript(url) + "\")"));
+    }
+
+    @Test
+    public void shouldDeferLoadingWithLazyOption() throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(JsiGenerator.LAZY_OPTION, "true");
+        options.put(JsiGenerator.ROOT_MARGIN_OPTION, "100px 0px");
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(request, "/a.nocache.html", options, writer);
+
+        final String include = writer.toString();
+        assertThat(include, containsString("new IntersectionObserver("));
+        assertThat(include, containsString("{ rootMargin: \"100px 0px\" }"));
+        assertThat(include, containsString("encodeURI(\"\\/a.nocache.html\")"));
+        assertThat(include, containsString("document.getElementById('" + divId(include) + "')"));
+        assertThat(include, not(containsString("${")));
+    }
+
+    @Test
+    public void shouldLoadEagerResourceTypesRightAway() throws IOException {
+        when(request.getResource()).thenReturn(resource);
+        when(resource.getResourceType()).thenReturn("app/components/header");
+        final Map<String, String> options = new HashMap<>();
+        options.put(JsiGenerator.LAZY_OPTION, "true");
+        options.put(JsiGenerator.EAGER_RESOURCE_TYPES_OPTION, "app/components/nav, app/components/header");
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(request, "/a.nocache.html", options, writer);
+
+        assertThat(writer.toString(), not(containsString("IntersectionObserver")));
+        final String include = writer.toString();
+        final String eager = generator.getInclude(otherRequest, "/a.nocache.html");
+        assertThat(include, is(eager.replace(divId(eager), divId(include))));
+    }
+
+    @Test
+    public void shouldIgnoreOptionsWhenNotLazy() throws IOException {
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(request, "/a.nocache.html", Collections.<String, String>emptyMap(), writer);
+
+        assertThat(writer.toString(), not(containsString("IntersectionObserver")));
+    }
+
+    @Test
+    public void shouldDisableClientCacheByDefault() {
+        assertThat(generator.getInclude(request, "/a.nocache.html"), containsString("cacheTtl = -1,"));
+    }
+
+    @Test
+    public void shouldCacheFragmentsForTtl() throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(JsiGenerator.CLIENT_CACHE_OPTION, "true");
+        options.put(Configuration.TTL_OPTION, "300");
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(request, "/a.nocache.html", options, writer);
+
+        assertThat(writer.toString(), containsString("cacheTtl = 300,"));
+        assertThat(writer.toString(), containsString("sessionStorage"));
+    }
+
+    @Test
+    public void shouldRevalidateCachedFragmentsWithoutTtl() throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(JsiGenerator.CLIENT_CACHE_OPTION, "true");
+        options.put(JsiGenerator.LAZY_OPTION, "true");
+        options.put(Configuration.TTL_OPTION, "1; alert(1)");
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(request, "/a.nocache.html", options, writer);
+
+        assertThat(writer.toString(), containsString("cacheTtl = 0,"));
+        assertThat(writer.toString(), containsString("new IntersectionObserver("));
+    }
+
+    @Test
+    public void shouldEscapeLikeCommonsLang() {
+        final String value = "/content/a.nocache.html?q='\"\\\b\n\t\f\r\u0001\u007f\u00e9\u2028\uffff</script>";
+
+        assertEquals(StringEscapeUtils.escapeEcmaScript(value), JsiGenerator.escapeEcmaScript(value));
+        assertEquals("\\uD83D\\uDE00", JsiGenerator.escapeEcmaScript("\uD83D\uDE00"));
+    }
+
+    @Test
+    public void shouldReturnValueWithoutEscapes() {
+        final String value = "200px 0px";
+
+        assertSame(value, JsiGenerator.escapeEcmaScript(value));
+    }
+
+    @Test
+    public void shouldKeepUnknownPlaceholders() {
+        final JsiTemplate template = JsiTemplate.compile("${a}-${unknown}-${b}${a}", "a", "b");
+
+        assertEquals("1-${unknown}-21", template.toString(new String[] { "1", "2" }));
+    }
+
+    private static String divId(String include) {
+        final Matcher matcher = DIV_ID.matcher(include);
+        assertThat(include, matcher.find(), is(true));
+        return matcher.group(1);
+    }
+
+    private static void givenAttributes(SlingHttpServletRequest request) {
+        final Map<String, Object> attributes = new HashMap<>();
+        when(request.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(request).setAttribute(anyString(), any());
+    }
+}
@@ -0,0 +1,76 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.generator.types;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class NginxSsiGeneratorTest {
+
+    private final NginxSsiGenerator generator = new NginxSsiGenerator();
+
+    @Test
+    public void writesEscapedInclude() throws IOException {
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/$page.nocache.html/\"", writer);
+        assertEquals("<!--# include virtual=\"/content/\\$page.nocache.html/%22\" -->", writer.toString());
+    }
+
+    @Test
+    public void writesPlainIncludeWithoutOptions() throws IOException {
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/page.nocache.html", Collections.<String, String>emptyMap(), writer);
+        assertEquals(generator.getInclude(null, "/content/page.nocache.html"), writer.toString());
+    }
+
+    @Test
+    public void writesWaitAndStub() throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(NginxSsiGenerator.WAIT_OPTION, "yes");
+        options.put(NginxSsiGenerator.STUB_OPTION, "fallback");
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/page.nocache.html", options, writer);
+        assertEquals("<!--# include virtual=\"/content/page.nocache.html\" wait=\"yes\" stub=\"fallback\" -->", writer.toString());
+    }
+
+    @Test
+    public void definesStubBlock() throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put(NginxSsiGenerator.STUB_CONTENT_OPTION, "<p>n/a</p>");
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/page.nocache.html", options, writer);
+        assertEquals("<!--# block name=\"sdi_stub\" --><p>n/a</p><!--# endblock -->"
+                + "<!--# include virtual=\"/content/page.nocache.html\" stub=\"sdi_stub\" -->", writer.toString());
+    }
+
+    @Test
+    public void ignoresInvalidStubName() throws IOException {
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/page.nocache.html",
+                Collections.singletonMap(NginxSsiGenerator.STUB_OPTION, "a\" b"), writer);
+        assertEquals("<!--# include virtual=\"/content/page.nocache.html\" -->", writer.toString());
+    }
+}
@@ -0,0 +1,47 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.generator.types;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class SsiGeneratorTest {
+
+    private final SsiGenerator generator = new SsiGenerator();
+
+    @Test
+    public void writesEscapedInclude() throws IOException {
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, "/content/$page.nocache.html/$", writer);
+        assertEquals("<!--#include virtual=\"/content/\\$page.nocache.html/\\$\" -->", writer.toString());
+    }
+
+    @Test
+    public void getIncludeMatchesWrittenInclude() throws IOException {
+        final String url = "/content/$page.nocache.html?a=<1>";
+        final StringWriter writer = new StringWriter();
+        generator.writeInclude(null, url, writer);
+        assertEquals(writer.toString(), generator.getInclude(null, url));
+    }
+}
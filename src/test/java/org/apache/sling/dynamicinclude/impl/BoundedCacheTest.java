@@ -0,0 +1,103 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void shouldEvictEntriesNotUsedSinceTheyWereAdded() {
+        final BoundedCache<String, String> tested = new BoundedCache<>(4);
+        tested.put("a", "A");
+        tested.put("b", "B");
+        tested.put("c", "C");
+        tested.put("d", "D");
+        tested.get("a");
+        tested.get("b");
+
+        tested.put("e", "E");
+
+        assertThat(tested.size(), is(3));
+        assertThat(tested.getEvictionCount(), is(2L));
+        assertThat(tested.get("a"), is("A"));
+        assertThat(tested.get("b"), is("B"));
+    }
+
+    @Test
+    public void shouldEvictUsedEntriesOnceUnmarked() {
+        final BoundedCache<String, String> tested = new BoundedCache<>(2);
+        tested.put("a", "A");
+        tested.put("b", "B");
+        tested.get("a");
+        tested.get("b");
+
+        tested.put("c", "C");
+
+        assertThat(tested.size(), is(1));
+    }
+
+    @Test
+    public void shouldNotStoreWithoutSize() {
+        final BoundedCache<String, String> tested = new BoundedCache<>(0);
+        tested.put("a", "A");
+
+        assertThat(tested.get("a"), nullValue());
+        assertThat(tested.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void shouldStayBoundedUnderConcurrentAccess() throws Exception {
+        final BoundedCache<Integer, Integer> tested = new BoundedCache<>(100);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        final int key = (i * 31 + offset) % 1000;
+                        if (tested.get(key) == null) {
+                            tested.put(key, key);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        tested.put(-1, -1);
+        assertThat(tested.size() <= 100, is(true));
+        assertThat(tested.getHitCount() + tested.getMissCount(), is(80000L));
+    }
+}
@@ -0,0 +1,202 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.apache.sling.dynamicinclude.ConfigurationSupport.configuration;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.dynamicinclude.Configuration;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FragmentCacheTest {
+
+    private static final String KEY = "localhost/content/page/_jcr_content/header.nocache.html";
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    @Mock
+    private SlingHttpServletResponse response;
+
+    private final StringWriter written = new StringWriter();
+
+    private FragmentCache tested;
+
+    @Before
+    public void setUp() throws IOException {
+        when(response.getWriter()).thenReturn(new PrintWriter(written));
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("include-filter.fragment-cache.max-size", 10L);
+        properties.put("include-filter.fragment-cache.max-entry-size", 10L);
+        tested = context.registerInjectActivateService(new FragmentCache(), properties);
+    }
+
+    @Test
+    public void shouldRecordAndReplayResponse() throws IOException {
+        final RecordingResponse recording = new RecordingResponse(response, tested.getMaxEntrySize(), Collections.<String>emptyList());
+        recording.setContentType("text/html;charset=UTF-8");
+        recording.setHeader("Cache-Control", "max-age=60");
+        recording.getWriter().write("header");
+        recording.flushBuffer();
+
+        assertThat(written.toString(), is("header"));
+        assertThat(tested.put(KEY, recording.toEntry(1000, 60, 0)), is(true));
+
+        final SlingHttpServletResponse replay = mock(SlingHttpServletResponse.class);
+        final ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        when(replay.getOutputStream()).thenReturn(outputStream(replayed));
+        tested.get(KEY, 31000).writeTo(replay, 31000);
+
+        verify(replay).setHeader("Cache-Control", "max-age=60");
+        verify(replay).setHeader("Age", "30");
+        verify(replay).setContentType("text/html;charset=UTF-8");
+        assertThat(new String(replayed.toByteArray(), StandardCharsets.UTF_8), is("header"));
+        assertThat(tested.getHitCount(), is(1L));
+        assertThat(tested.getSize(), is(6L));
+    }
+
+    @Test
+    public void shouldServeStaleEntryWhileRevalidating() {
+        tested.put(KEY, entry("header", 0, 60, 30));
+
+        assertThat(tested.get(KEY, 59999).isFresh(59999), is(true));
+        final FragmentCache.Entry stale = tested.get(KEY, 60000);
+        assertThat(stale.isFresh(60000), is(false));
+        assertThat(stale.startRevalidation(), is(true));
+        assertThat(stale.startRevalidation(), is(false));
+        stale.endRevalidation();
+        assertThat(stale.startRevalidation(), is(true));
+        assertThat(tested.get(KEY, 90000), nullValue());
+        assertThat(tested.getSize(), is(0L));
+        assertThat(tested.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntriesOverTotalSize() {
+        tested.put("first", entry("12345", 0, 60, 0));
+        tested.put("second", entry("1234", 0, 60, 0));
+        tested.get("first", 0);
+        tested.put("third", entry("123", 0, 60, 0));
+
+        assertThat(tested.get("first", 0), notNullValue());
+        assertThat(tested.get("second", 0), nullValue());
+        assertThat(tested.get("third", 0), notNullValue());
+        assertThat(tested.getEvictionCount(), is(1L));
+        assertThat(tested.getSize(), is(8L));
+        assertThat(tested.put("large", entry("12345678901", 0, 60, 0)), is(false));
+    }
+
+    @Test
+    public void shouldReplaceEntry() {
+        final FragmentCache.Entry entry = entry("1234", 0, 60, 0);
+        tested.put(KEY, entry("12345", 0, 60, 0));
+        tested.put(KEY, entry);
+
+        assertThat(tested.get(KEY, 0), sameInstance(entry));
+        assertThat(tested.getSize(), is(4L));
+    }
+
+    @Test
+    public void shouldNotRecordUncacheableResponses() throws IOException {
+        final RecordingResponse withCookie = new RecordingResponse(response, tested.getMaxEntrySize(), Collections.<String>emptyList());
+        withCookie.addCookie(new Cookie("name", "value"));
+        withCookie.getWriter().write("header");
+        assertThat(withCookie.toEntry(0, 60, 0), nullValue());
+
+        final RecordingResponse error = new RecordingResponse(response, tested.getMaxEntrySize(), Collections.<String>emptyList());
+        error.setStatus(404);
+        assertThat(error.toEntry(0, 60, 0), nullValue());
+
+        final RecordingResponse noStore = new RecordingResponse(response, tested.getMaxEntrySize(),
+                Collections.<String>emptyList());
+        noStore.addHeader("Cache-Control", "No-Store");
+        assertThat(noStore.toEntry(0, 60, 0), nullValue());
+
+        final RecordingResponse varying = new RecordingResponse(response, tested.getMaxEntrySize(),
+                Collections.singletonList("Accept-Language"));
+        varying.setHeader("Vary", "Accept-Language, *");
+        assertThat(varying.toEntry(0, 60, 0), nullValue());
+
+        final RecordingResponse large = new RecordingResponse(response, tested.getMaxEntrySize(), Collections.<String>emptyList());
+        large.getWriter().write("12345678901");
+        assertThat(large.toEntry(0, 60, 0), nullValue());
+        assertThat(written.toString(), is("header12345678901"));
+    }
+
+    @Test
+    public void shouldClearOnConfigurationChange() {
+        tested.put(KEY, entry("header", 0, 60, 0));
+
+        context.registerService(Configuration.class, configuration());
+
+        assertThat(tested.get(KEY, 0), nullValue());
+        assertThat(tested.getSize(), is(0L));
+    }
+
+    private static FragmentCache.Entry entry(String content, long created, int ttl, int staleWhileRevalidate) {
+        return new FragmentCache.Entry("text/html", "UTF-8", Collections.emptyMap(),
+                content.getBytes(StandardCharsets.UTF_8), created, ttl, staleWhileRevalidate);
+    }
+
+    private static ServletOutputStream outputStream(final ByteArrayOutputStream bytes) {
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                bytes.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+    }
+}
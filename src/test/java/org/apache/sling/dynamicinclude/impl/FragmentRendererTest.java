@@ -0,0 +1,164 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.engine.SlingRequestProcessor;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FragmentRendererTest {
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    @Mock
+    private SlingRequestProcessor requestProcessor;
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private ResourceResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        when(request.getContextPath()).thenReturn("/ctx");
+        doAnswer(invocation -> {
+            final HttpServletRequest fragmentRequest = invocation.getArgument(0);
+            final HttpServletResponse fragmentResponse = invocation.getArgument(1);
+            fragmentResponse.getWriter().write(fragmentRequest.getPathInfo() + " by " + Thread.currentThread().getName());
+            return null;
+        }).when(requestProcessor).processRequest(any(HttpServletRequest.class), any(HttpServletResponse.class), any(ResourceResolver.class));
+        context.registerService(SlingRequestProcessor.class, requestProcessor);
+    }
+
+    @Test
+    public void shouldRenderInBackgroundWithClonedResolver() throws Exception {
+        final ResourceResolver clone = mock(ResourceResolver.class);
+        when(resolver.clone(null)).thenReturn(clone);
+        final FragmentRenderer renderer = context.registerInjectActivateService(new FragmentRenderer());
+
+        final Future<String> fragment = renderer.submit(request, resolver, "/ctx/content/a%20b.nocache.html");
+
+        final String content = fragment.get(5, TimeUnit.SECONDS);
+        assertThat(content.startsWith("/content/a b.nocache.html by "), is(true));
+        assertThat(content.endsWith(Thread.currentThread().getName()), is(false));
+        verify(clone).close();
+    }
+
+    @Test
+    public void shouldCloneResolverAndCopyRequestInCallingThread() throws Exception {
+        final String callingThread = Thread.currentThread().getName();
+        final ResourceResolver clone = mock(ResourceResolver.class);
+        when(resolver.clone(null)).thenAnswer(invocation -> {
+            assertThat(Thread.currentThread().getName(), is(callingThread));
+            return clone;
+        });
+        when(request.getHeaderNames()).thenReturn(Collections.enumeration(Collections.singletonList("Cookie")));
+        when(request.getHeaders("Cookie")).thenReturn(Collections.enumeration(Collections.singletonList("a=b")));
+        doAnswer(invocation -> {
+            final HttpServletRequest fragmentRequest = invocation.getArgument(0);
+            final HttpServletResponse fragmentResponse = invocation.getArgument(1);
+            fragmentResponse.getWriter().write(fragmentRequest.getHeader("cookie") + " " + fragmentRequest.getContextPath());
+            return null;
+        }).when(requestProcessor).processRequest(any(HttpServletRequest.class), any(HttpServletResponse.class), eq(clone));
+        final FragmentRenderer renderer = context.registerInjectActivateService(new FragmentRenderer());
+
+        final Future<String> fragment = renderer.submit(request, resolver, "/ctx/content/a.nocache.html");
+
+        assertThat(fragment.get(5, TimeUnit.SECONDS), is("a=b /ctx"));
+        verify(request, never()).getHeader(anyString());
+    }
+
+    @Test
+    public void shouldJoinCancelledFragments() throws Exception {
+        final ResourceResolver clone = mock(ResourceResolver.class);
+        when(resolver.clone(null)).thenReturn(clone);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                // still busy for a while after the interrupt
+                Thread.sleep(100);
+                stopped.countDown();
+            }
+            return null;
+        }).when(requestProcessor).processRequest(any(HttpServletRequest.class), any(HttpServletResponse.class), eq(clone));
+        final FragmentRenderer renderer = context.registerInjectActivateService(new FragmentRenderer());
+
+        final Future<String> fragment = renderer.submit(request, resolver, "/content/a.nocache.html");
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        fragment.cancel(true);
+        renderer.join(Collections.singletonList(fragment));
+
+        assertThat(stopped.getCount(), is(0L));
+        verify(clone).close();
+    }
+
+    @Test
+    public void shouldRenderInCallingThreadWithoutConcurrency() throws Exception {
+        final FragmentRenderer renderer = context.registerInjectActivateService(new FragmentRenderer(),
+                Collections.<String, Object>singletonMap("include-filter.inline.max-concurrency", 0));
+
+        final Future<String> fragment = renderer.submit(request, resolver, "/content/a.nocache.html");
+
+        assertThat(fragment.isDone(), is(true));
+        assertThat(fragment.get(), is("/content/a.nocache.html by " + Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void shouldNotRenderAbsoluteUrls() throws Exception {
+        final FragmentRenderer renderer = context.registerInjectActivateService(new FragmentRenderer());
+
+        assertThat(renderer.render(request, resolver, "http://example.com/a.nocache.html"), nullValue());
+        assertThat(renderer.render(request, resolver, "//example.com/a.nocache.html"), nullValue());
+        assertThat(renderer.render(request, resolver, "/a.nocache.html"), not(nullValue()));
+    }
+}
@@ -0,0 +1,95 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FragmentRequestTest {
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private HttpSession session;
+
+    @Test
+    public void shouldCopyRequestStateAsGetWithoutBody() throws Exception {
+        when(request.getHeaderNames()).thenReturn(Collections.enumeration(Arrays.asList("Cookie", "Content-Length")));
+        when(request.getHeaders("Cookie")).thenReturn(Collections.enumeration(Arrays.asList("a=b")));
+        when(request.getContextPath()).thenReturn("/ctx");
+        when(request.getSession(false)).thenReturn(session);
+
+        final FragmentRequest tested = new FragmentRequest(request, "/content/a b.nocache.html", "/content/a%20b.nocache.html");
+        tested.setCharacterEncoding("UTF-8");
+
+        assertThat(tested.getMethod(), is("GET"));
+        assertThat(tested.getHeader("cookie"), is("a=b"));
+        assertThat(tested.getHeader("Content-Length"), nullValue());
+        assertThat(tested.getContentLength(), is(-1));
+        assertThat(tested.getInputStream().read(), is(-1));
+        assertThat(tested.getCharacterEncoding(), is("UTF-8"));
+        assertThat(tested.getRequestURI(), is("/ctx/content/a%20b.nocache.html"));
+        assertThat(tested.getPathInfo(), is("/content/a b.nocache.html"));
+        assertThat(tested.getSession(true), is(session));
+        verify(request, never()).getSession(true);
+        verify(request, never()).setCharacterEncoding("UTF-8");
+    }
+
+    @Test
+    public void shouldNotUseOriginalRequestOnceCreated() throws Exception {
+        final FragmentRequest tested = new FragmentRequest(request, "/content/a.nocache.html", "/content/a.nocache.html");
+        clearInvocations(request);
+
+        for (Method method : HttpServletRequest.class.getMethods()) {
+            final Object[] args = new Object[method.getParameterCount()];
+            for (int i = 0; i < args.length; i++) {
+                final Class<?> type = method.getParameterTypes()[i];
+                args[i] = type == String.class ? "name" : type == boolean.class ? Boolean.TRUE : null;
+            }
+            try {
+                method.invoke(tested, args);
+            } catch (InvocationTargetException e) {
+                // unsupported operations of a fragment request
+            }
+        }
+
+        verifyZeroInteractions(request);
+    }
+}
@@ -0,0 +1,81 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.apache.sling.dynamicinclude.ConfigurationSupport.configuration;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.when;
+
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.dynamicinclude.Configuration;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IncludeUrlCacheTest {
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    @Mock
+    private RequestPathInfo pathInfo;
+
+    @Mock
+    private Configuration config;
+
+    private IncludeUrlCache tested;
+
+    @Before
+    public void setUp() {
+        when(pathInfo.getResourcePath()).thenReturn("/content/page/jcr:content/header");
+        when(pathInfo.getSelectorString()).thenReturn("foo");
+        when(pathInfo.getExtension()).thenReturn("html");
+        tested = context.registerInjectActivateService(new IncludeUrlCache());
+    }
+
+    @Test
+    public void shouldCacheUrlPerConfigAndPathInfo() {
+        tested.put(new IncludeUrlCache.Key(config, pathInfo, "app/header", false), "/content/page/_jcr_content/header.foo.nocache.html");
+
+        assertThat(tested.get(new IncludeUrlCache.Key(config, pathInfo, "app/header", false)), is("/content/page/_jcr_content/header.foo.nocache.html"));
+        assertThat(tested.get(new IncludeUrlCache.Key(config, pathInfo, "app/header", true)), nullValue());
+        assertThat(tested.get(new IncludeUrlCache.Key(config, pathInfo, "app/footer", false)), nullValue());
+        assertThat(tested.get(new IncludeUrlCache.Key(configuration(), pathInfo, "app/header", false)), nullValue());
+        assertThat(tested.getHitCount(), is(1L));
+        assertThat(tested.getMissCount(), is(3L));
+        assertThat(tested.getSize(), is(1));
+    }
+
+    @Test
+    public void shouldClearOnConfigurationChange() {
+        tested.put(new IncludeUrlCache.Key(config, pathInfo, "app/header", false), "/content/page/_jcr_content/header.foo.nocache.html");
+
+        context.registerService(Configuration.class, configuration());
+
+        assertThat(tested.get(new IncludeUrlCache.Key(config, pathInfo, "app/header", false)), nullValue());
+        assertThat(tested.getSize(), is(0));
+    }
+}
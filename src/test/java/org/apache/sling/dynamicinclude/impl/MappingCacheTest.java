@@ -0,0 +1,119 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.osgi.service.event.Event;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MappingCacheTest {
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private SlingHttpServletRequest otherHostRequest;
+
+    @Mock
+    private ResourceResolver resolver;
+
+    private MappingCache tested;
+
+    @Before
+    public void setUp() {
+        givenRequest(request, "www.example.com");
+        givenRequest(otherHostRequest, "www.example.org");
+        when(resolver.map(request, "/content/site/header.nocache.html")).thenReturn("/header.nocache.html");
+        tested = context.registerInjectActivateService(new MappingCache());
+    }
+
+    @Test
+    public void shouldCacheMappingPerHost() {
+        when(resolver.map(otherHostRequest, "/content/site/header.nocache.html")).thenReturn("/site/header.nocache.html");
+
+        assertThat(tested.map(request, "/content/site/header.nocache.html"), is("/header.nocache.html"));
+        assertThat(tested.map(request, "/content/site/header.nocache.html"), is("/header.nocache.html"));
+        assertThat(tested.map(otherHostRequest, "/content/site/header.nocache.html"), is("/site/header.nocache.html"));
+
+        verify(resolver, times(1)).map(request, "/content/site/header.nocache.html");
+        assertThat(tested.getHitCount(), is(1L));
+        assertThat(tested.getSize(), is(2));
+    }
+
+    @Test
+    public void shouldClearOnMappingChange() {
+        tested.map(request, "/content/site/header.nocache.html");
+        tested.handleEvent(new Event(SlingConstants.TOPIC_RESOURCE_RESOLVER_MAPPING_CHANGED, Collections.<String, Object>emptyMap()));
+        tested.map(request, "/content/site/header.nocache.html");
+
+        verify(resolver, times(2)).map(request, "/content/site/header.nocache.html");
+    }
+
+    @Test
+    public void shouldMapConsistentlyFromConcurrentRequests() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                results.add(executor.submit(() -> tested.map(request, "/content/site/header.nocache.html")));
+            }
+            for (Future<String> result : results) {
+                assertThat(result.get(), is("/header.nocache.html"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(tested.getSize(), is(1));
+        assertThat(tested.getHitCount() + tested.getMissCount(), is(1000L));
+    }
+
+    private void givenRequest(SlingHttpServletRequest request, String host) {
+        when(request.getScheme()).thenReturn("https");
+        when(request.getServerName()).thenReturn(host);
+        when(request.getServerPort()).thenReturn(443);
+        when(request.getContextPath()).thenReturn("");
+        when(request.getResourceResolver()).thenReturn(resolver);
+    }
+}
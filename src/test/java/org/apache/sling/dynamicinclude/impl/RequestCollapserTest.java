@@ -0,0 +1,92 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RequestCollapserTest {
+
+    private static final String KEY = "localhost/content/page/_jcr_content/header.nocache.html";
+
+    private final RequestCollapser tested = new RequestCollapser();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldShareResponseOfFirstRequest() throws Exception {
+        final CompletableFuture<FragmentCache.Entry> render = new CompletableFuture<>();
+        assertThat(tested.register(KEY, render), nullValue());
+
+        final CompletableFuture<FragmentCache.Entry> pending = tested.register(KEY, new CompletableFuture<FragmentCache.Entry>());
+        assertThat(pending, sameInstance(render));
+        final Future<FragmentCache.Entry> waiting = executor.submit(() -> tested.await(pending, 5000));
+
+        final FragmentCache.Entry entry = entry("header");
+        tested.complete(KEY, render, entry);
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS), sameInstance(entry));
+        assertThat(tested.getCollapsedCount(), is(1L));
+        assertThat(tested.register(KEY, new CompletableFuture<FragmentCache.Entry>()), nullValue());
+    }
+
+    @Test
+    public void shouldFallThroughAfterTimeout() {
+        final CompletableFuture<FragmentCache.Entry> render = new CompletableFuture<>();
+        tested.register(KEY, render);
+
+        assertThat(tested.await(render, 10), nullValue());
+        assertThat(tested.getTimeoutCount(), is(1L));
+        assertThat(tested.getCollapsedCount(), is(0L));
+    }
+
+    @Test
+    public void shouldFallThroughIfResponseWasNotRecorded() {
+        final CompletableFuture<FragmentCache.Entry> render = new CompletableFuture<>();
+        tested.register(KEY, render);
+        tested.complete(KEY, render, null);
+
+        assertThat(tested.await(render, 10), nullValue());
+        assertThat(tested.getTimeoutCount(), is(0L));
+        assertThat(tested.getCollapsedCount(), is(0L));
+    }
+
+    private static FragmentCache.Entry entry(String content) {
+        return new FragmentCache.Entry("text/html", "UTF-8", Collections.emptyMap(),
+                content.getBytes(StandardCharsets.UTF_8), 0, 0, 0);
+    }
+}
@@ -0,0 +1,92 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StitchingResponseTest {
+
+    @Mock
+    private SlingHttpServletResponse response;
+
+    private final StringWriter output = new StringWriter();
+
+    private StitchingResponse tested;
+
+    @Before
+    public void setUp() throws IOException {
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+        tested = new StitchingResponse(response);
+    }
+
+    @Test
+    public void shouldWriteFragmentsInDocumentOrder() throws IOException {
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        final CompletableFuture<String> second = new CompletableFuture<>();
+
+        tested.getWriter().write("<header>" + tested.addFragment(first) + "<main>");
+        tested.getWriter().write(tested.addFragment(second) + "<footer>");
+        second.complete("[2]");
+        tested.flushBuffer();
+        assertEquals("<header>", output.toString());
+
+        first.complete("[1]");
+        tested.finish(1000);
+        assertEquals("<header>[1]<main>[2]<footer>", output.toString());
+        assertEquals(Arrays.asList(first, second), tested.getFragments());
+    }
+
+    @Test
+    public void shouldWriteStraightUntilFirstFragment() throws IOException {
+        tested.getWriter().write("a" + StitchingWriter.marker("1"));
+        assertEquals("a" + StitchingWriter.marker("1"), output.toString());
+
+        tested.getWriter().write(tested.addFragment(new CompletableFuture<>()) + "b");
+        assertEquals("a" + StitchingWriter.marker("1"), output.toString());
+    }
+
+    @Test
+    public void shouldCancelFragmentsNotRenderedInTime() throws IOException {
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        final CompletableFuture<String> unwritten = new CompletableFuture<>();
+
+        tested.getWriter().write("a" + tested.addFragment(slow) + "b");
+        tested.addFragment(unwritten);
+        tested.finish(10);
+
+        assertEquals("ab", output.toString());
+        assertEquals(true, slow.isCancelled());
+        assertEquals(true, unwritten.isCancelled());
+    }
+}
@@ -0,0 +1,88 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class StitchingWriterTest {
+
+    private final StringWriter output = new StringWriter();
+
+    private final StitchingWriter writer = new StitchingWriter(output);
+
+    @Test
+    public void shouldStitchFragmentsInDocumentOrder() throws IOException {
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        final CompletableFuture<String> second = new CompletableFuture<>();
+        writer.register("1", first);
+        writer.register("2", second);
+
+        writer.write("<header>" + StitchingWriter.marker("1") + "<main>");
+        writer.write(StitchingWriter.marker("2"));
+        writer.write("<footer>");
+        assertEquals("<header>", output.toString());
+
+        second.complete("[2]");
+        writer.flush();
+        assertEquals("<header>", output.toString());
+
+        first.complete("[1]");
+        writer.flush();
+        assertEquals("<header>[1]<main>[2]<footer>", output.toString());
+    }
+
+    @Test
+    public void shouldReadMarkersSplitAcrossWrites() throws IOException {
+        writer.register("12", CompletableFuture.completedFuture("[12]"));
+        final String marker = StitchingWriter.marker("12");
+
+        writer.write("a" + marker.substring(0, 2));
+        writer.write(marker.substring(2));
+        writer.write('b');
+
+        assertEquals("a[12]b", output.toString());
+    }
+
+    @Test
+    public void shouldLeaveOutFragmentsNotRenderedInTime() throws IOException {
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        writer.register("1", slow);
+        writer.register("2", CompletableFuture.completedFuture(null));
+
+        writer.write("a" + StitchingWriter.marker("1") + "b" + StitchingWriter.marker("2") + "c");
+        writer.finish(10);
+
+        assertEquals("abc", output.toString());
+        assertEquals(true, slow.isCancelled());
+    }
+
+    @Test
+    public void shouldKeepUnknownMarkers() throws IOException {
+        writer.write("a" + StitchingWriter.marker("x") + "b\uE000c");
+        writer.finish(0);
+
+        assertEquals("a" + StitchingWriter.marker("x") + "b\uE000c", output.toString());
+    }
+}
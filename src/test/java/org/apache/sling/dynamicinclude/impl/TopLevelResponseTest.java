@@ -0,0 +1,123 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TopLevelResponseTest {
+
+    private static final String ESI = "content=\"ESI/1.0\"";
+
+    @Mock
+    private ServletRequest request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        when(request.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(request).setAttribute(anyString(), any());
+    }
+
+    @Test
+    public void shouldSetHeaderOnce() {
+        TopLevelResponse.register(request, response);
+
+        TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, ESI);
+        TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, ESI);
+
+        verify(response).setHeader(TopLevelResponse.SURROGATE_CONTROL, ESI);
+    }
+
+    @Test
+    public void shouldAppendToExistingHeader() {
+        when(response.getHeader(TopLevelResponse.SURROGATE_CONTROL)).thenReturn("max-age=60");
+        TopLevelResponse.register(request, response);
+
+        TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, ESI);
+
+        verify(response).setHeader(TopLevelResponse.SURROGATE_CONTROL, "max-age=60, " + ESI);
+    }
+
+    @Test
+    public void shouldKeepHeadersApart() {
+        TopLevelResponse.register(request, response);
+
+        TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, ESI);
+        TopLevelResponse.addHeaderValue(request, TopLevelResponse.VARY, "Surrogate-Capability");
+
+        verify(response).setHeader(TopLevelResponse.SURROGATE_CONTROL, ESI);
+        verify(response).setHeader(TopLevelResponse.VARY, "Surrogate-Capability");
+    }
+
+    @Test
+    public void shouldNotSetHeaderOnCommittedResponse() {
+        when(response.isCommitted()).thenReturn(true);
+        TopLevelResponse.register(request, response);
+
+        assertThat(TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, ESI), is(false));
+        assertThat(TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, ESI), is(false));
+
+        verify(response, never()).setHeader(anyString(), anyString());
+    }
+
+    @Test
+    public void shouldKeepHeaderAddedBeforeCommit() {
+        TopLevelResponse.register(request, response);
+
+        assertThat(TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, ESI), is(true));
+        assertThat(TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, ESI), is(true));
+
+        // the response may be committed by now, the header is there anyway
+        verify(response, times(1)).isCommitted();
+        verify(response).setHeader(TopLevelResponse.SURROGATE_CONTROL, ESI);
+    }
+
+    @Test
+    public void shouldIgnoreRequestsWithoutTopLevelResponse() {
+        assertThat(TopLevelResponse.addHeaderValue(request, TopLevelResponse.SURROGATE_CONTROL, ESI), is(false));
+
+        verify(response, never()).setHeader(anyString(), anyString());
+    }
+}
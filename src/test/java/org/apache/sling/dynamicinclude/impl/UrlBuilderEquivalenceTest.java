@@ -0,0 +1,192 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.dynamicinclude.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks on random inputs that {@link UrlBuilder} builds the same urls as the original
+ * implementation, which built the url with {@link UrlBuilder#buildUrl} and then either removed the
+ * question marks or encoded the {@code jcr:content} parts and the url with {@link URI}.
+ */
+public class UrlBuilderEquivalenceTest {
+
+    private static final int ITERATIONS = 20000;
+
+    private static final String[] PATH_SEGMENTS = { "content", "jcr:content", "par", "a b", "\u00E4", "\u20ACuro", "100%",
+            "what?", "$var", "x[1]", "a#b", "c&d=e", "~user", "@at", "(x)", "'q'", "a\"b", "x/y", "", ":", "\u65E5\u672C", "\uD83D\uDE00", "tab\tx" };
+
+    private static final String[] SELECTORS = { null, "foo", "nocache", "foo.nocache", "a b", "\u00E4", "q?" };
+
+    private static final String[] INCLUDE_SELECTORS = { "", "nocache", "foo" };
+
+    private static final String[] EXTENSIONS = { "html", "json", "h?tml", null };
+
+    private static final String[] SUFFIXES = { null, "", "/suffix", "/a b/\u00E4", "/x?y", "/jcr:content/x" };
+
+    private static final String[] RESOURCE_TYPES = { "app/component", "app/a b", "app/\u00E4", "app/x?" };
+
+    private final List<Configuration> configs = new ArrayList<>();
+
+    private final Random random = new Random(4711);
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 16; i++) {
+            final Configuration config = mock(Configuration.class);
+            when(config.isRewritePath()).thenReturn((i & 1) != 0);
+            when(config.isAppendSuffix()).thenReturn((i & 2) != 0);
+            when(config.hasExtensionSet()).thenReturn((i & 4) != 0);
+            when(config.getExtension()).thenReturn((i & 8) != 0 ? "json" : "h tml");
+            configs.add(config);
+        }
+    }
+
+    @Test
+    public void shouldBuildTheSameUrlsAsTheOriginalImplementation() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final RequestPathInfo pathInfo = randomPathInfo();
+            final Configuration config = pick(configs.toArray(new Configuration[0]));
+            final String includeSelector = pick(INCLUDE_SELECTORS);
+            final String resourceType = pick(RESOURCE_TYPES);
+            final boolean synthetic = random.nextBoolean();
+
+            final String expectedUrl = originalBuildUrl(includeSelector, resourceType, synthetic, config, pathInfo);
+            assertEquals(expectedUrl, UrlBuilder.buildUrl(includeSelector, resourceType, synthetic, config, pathInfo));
+
+            String expected;
+            try {
+                expected = originalIncludeUrl(expectedUrl, config);
+            } catch (URISyntaxException e) {
+                expected = null;
+            }
+            String actual;
+            try {
+                actual = UrlBuilder.buildIncludeUrl(includeSelector, resourceType, synthetic, config, pathInfo);
+            } catch (URISyntaxException e) {
+                actual = null;
+            }
+            if (!StringUtils.equals(expected, actual)) {
+                fail("Different url for " + expectedUrl + ": expected " + expected + " but was " + actual);
+            }
+        }
+    }
+
+    private RequestPathInfo randomPathInfo() {
+        final StringBuilder path = new StringBuilder();
+        if (random.nextInt(20) > 0) {
+            path.append('/');
+        }
+        final int depth = random.nextInt(6);
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                path.append('/');
+            }
+            path.append(pick(PATH_SEGMENTS));
+        }
+        final String selectorString = pick(SELECTORS);
+        final String extension = pick(EXTENSIONS);
+        final String suffix = pick(SUFFIXES);
+        return new RequestPathInfo() {
+            @Override
+            public String getResourcePath() {
+                return path.toString();
+            }
+
+            @Override
+            public String getExtension() {
+                return extension;
+            }
+
+            @Override
+            public String getSelectorString() {
+                return selectorString;
+            }
+
+            @Override
+            public String[] getSelectors() {
+                return selectorString == null ? new String[0] : selectorString.split("\\.");
+            }
+
+            @Override
+            public String getSuffix() {
+                return suffix;
+            }
+
+            @Override
+            public Resource getSuffixResource() {
+                return null;
+            }
+        };
+    }
+
+    private <T> T pick(T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String originalBuildUrl(String includeSelector, String resourceType, boolean synthetic, Configuration config, RequestPathInfo pathInfo) {
+        final StringBuilder builder = new StringBuilder();
+
+        final String resourcePath = pathInfo.getResourcePath();
+        builder.append(resourcePath);
+        String currentSelectorString = StringUtils.defaultString(pathInfo.getSelectorString());
+        if (pathInfo.getSelectorString() != null) {
+            builder.append('.').append(currentSelectorString);
+        }
+        if (!includeSelector.isEmpty() && !Arrays.asList(pathInfo.getSelectors()).contains(includeSelector)) {
+            builder.append('.').append(includeSelector);
+        }
+        builder.append('.').append(pathInfo.getExtension());
+        if (synthetic) {
+            builder.append('/').append(resourceType);
+            if (config.hasExtensionSet()) {
+                builder.append('.').append(config.getExtension());
+            }
+        } else {
+            if (config.isAppendSuffix()) {
+                builder.append(StringUtils.defaultString(pathInfo.getSuffix()));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String originalIncludeUrl(String url, Configuration config) throws URISyntaxException {
+        if (config.isRewritePath()) {
+            return url.replaceAll("[?]", "");
+        }
+        return new URI(null, null, url.replace("jcr:content", "_jcr_content"), null).toASCIIString();
+    }
+}
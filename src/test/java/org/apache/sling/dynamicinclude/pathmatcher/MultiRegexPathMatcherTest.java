@@ -0,0 +1,75 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.pathmatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class MultiRegexPathMatcherTest {
+    private final String[] regexes = { "^/[fg]oo", "^/content/site/.*", null, "^/content/a|^/content/b",
+        "^/content/sit?e/x", "^\\/content\\/site/\\d+", "^(?i)/CONTENT/.*", "^/content/s+ite.*" };
+    private final MultiRegexPathMatcher matcher = new MultiRegexPathMatcher(compile(regexes));
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals("/", MultiRegexPathMatcher.literalPrefix("^/[fg]oo"));
+        assertEquals("/content/site/", MultiRegexPathMatcher.literalPrefix("^/content/site/.*"));
+        assertEquals("", MultiRegexPathMatcher.literalPrefix("^/content/a|^/content/b"));
+        assertEquals("/content/", MultiRegexPathMatcher.literalPrefix("^/content/(a|b)"));
+        assertEquals("/content/si", MultiRegexPathMatcher.literalPrefix("^/content/sit?e/x"));
+        assertEquals("/content/site/", MultiRegexPathMatcher.literalPrefix("^\\/content\\/site/\\d+"));
+        assertEquals("", MultiRegexPathMatcher.literalPrefix("^(?i)/CONTENT/.*"));
+        assertEquals("/content/s", MultiRegexPathMatcher.literalPrefix("^/content/s+ite.*"));
+        assertEquals("/a", MultiRegexPathMatcher.literalPrefix("^/a[|]b"));
+        assertEquals("", MultiRegexPathMatcher.literalPrefix("^/a\\Q|\\E|/b"));
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertTrue(matcher.match("").isEmpty());
+        assertTrue(matcher.match(null).isEmpty());
+    }
+
+    @Test
+    public void testSameResultAsRegexPathMatcher() {
+        String[] paths = { "/foo", "/goo", "/foobar", "/content/site/en", "/content/site", "/content/a", "/content/b",
+            "/content/se/x", "/content/site/x", "/content/site/123", "/Content/Site", "/content/sssite/x", "/other" };
+        for (String path : paths) {
+            BitSet expected = new BitSet();
+            for (int i = 0; i < regexes.length; i++) {
+                if (regexes[i] != null && new RegexPathMatcher(regexes[i]).match(path)) {
+                    expected.set(i);
+                }
+            }
+            assertEquals(path, expected, matcher.match(path));
+        }
+    }
+
+    private static Pattern[] compile(String[] regexes) {
+        Pattern[] result = new Pattern[regexes.length];
+        for (int i = 0; i < regexes.length; i++) {
+            result[i] = regexes[i] == null ? null : Pattern.compile(regexes[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.pathmatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import org.junit.Test;
+
+public class PrefixPathTrieTest {
+    private final String[] prefixes = { "/foo", null, "/foo/bar", "/content/brand/en", "/foo", "" };
+    private final PrefixPathTrie trie = new PrefixPathTrie(prefixes);
+
+    @Test
+    public void testMatch() {
+        assertEquals(bits(0, 4, 5), trie.match("/foo"));
+        assertEquals(bits(0, 4, 5), trie.match("/foobar"));
+        assertEquals(bits(0, 2, 4, 5), trie.match("/foo/bar/baz"));
+        assertEquals(bits(3, 5), trie.match("/content/brand/english"));
+        assertEquals(bits(5), trie.match("/content/brand"));
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertTrue(trie.match("").isEmpty());
+        assertTrue(trie.match(null).isEmpty());
+    }
+
+    @Test
+    public void testSameResultAsPrefixPathMatcher() {
+        String[] paths = { "/foo", "/fo", "/foo/bar", "/foo/ba", "/content/brand/en/home", "/bar/foo", " " };
+        for (String path : paths) {
+            BitSet expected = new BitSet();
+            for (int i = 0; i < prefixes.length; i++) {
+                if (prefixes[i] != null && new PrefixPathMatcher(prefixes[i]).match(path)) {
+                    expected.set(i);
+                }
+            }
+            assertEquals(path, expected, trie.match(path));
+        }
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet result = new BitSet();
+        for (int i : indexes) {
+            result.set(i);
+        }
+        return result;
+    }
+}
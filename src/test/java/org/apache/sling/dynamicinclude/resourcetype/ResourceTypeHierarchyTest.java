@@ -0,0 +1,121 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.resourcetype;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResourceTypeHierarchyTest {
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    @Mock
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Mock
+    private ResourceResolver serviceResolver;
+
+    @Mock
+    private ResourceResolver requestResolver;
+
+    @Mock
+    private ResourceResolver otherResolver;
+
+    private ResourceTypeHierarchy tested;
+
+    @Before
+    public void setUp() throws Exception {
+        context.registerService(ResourceResolverFactory.class, resourceResolverFactory);
+        tested = context.registerInjectActivateService(new ResourceTypeHierarchy());
+    }
+
+    @Test
+    public void shouldReadAndCacheSuperTypes() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(anyMap())).thenReturn(serviceResolver);
+        when(serviceResolver.getParentResourceType("app/teaser")).thenReturn("app/base");
+        when(serviceResolver.getParentResourceType("app/base")).thenReturn("core/base");
+
+        assertThat(tested.getSuperTypes("app/teaser", requestResolver), is(Arrays.asList("app/base", "core/base")));
+        assertThat(tested.getSuperTypes("app/teaser", requestResolver), is(Arrays.asList("app/base", "core/base")));
+        verify(serviceResolver, times(1)).getParentResourceType("app/teaser");
+        verify(serviceResolver, times(1)).close();
+
+        tested.onChange(Collections.emptyList());
+        tested.getSuperTypes("app/teaser", requestResolver);
+        verify(serviceResolver, times(2)).getParentResourceType("app/teaser");
+    }
+
+    @Test
+    public void shouldStopOnCycles() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(anyMap())).thenReturn(serviceResolver);
+        when(serviceResolver.getParentResourceType("app/a")).thenReturn("app/b");
+        when(serviceResolver.getParentResourceType("app/b")).thenReturn("app/a");
+
+        assertThat(tested.getSuperTypes("app/a", requestResolver), is(Arrays.asList("app/b")));
+    }
+
+    @Test
+    public void shouldFallBackToRequestResolver() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(anyMap())).thenThrow(new LoginException());
+        when(requestResolver.getParentResourceType("app/teaser")).thenReturn("app/base");
+
+        assertThat(tested.getSuperTypes("app/teaser", requestResolver), is(Arrays.asList("app/base")));
+    }
+
+    @Test
+    public void shouldNotCacheSuperTypesReadWithRequestResolver() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(anyMap())).thenThrow(new LoginException());
+        when(requestResolver.getParentResourceType("app/teaser")).thenReturn("app/base");
+
+        tested.getSuperTypes("app/teaser", requestResolver);
+        assertThat(tested.getSuperTypes("app/teaser", otherResolver), is(Collections.<String>emptyList()));
+        verify(requestResolver, times(1)).getParentResourceType("app/teaser");
+        verify(otherResolver, times(1)).getParentResourceType("app/teaser");
+    }
+
+    @Test
+    public void shouldNotRetryFailedLoginOnEveryLookup() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(anyMap())).thenThrow(new LoginException());
+
+        tested.getSuperTypes("app/teaser", requestResolver);
+        tested.getSuperTypes("app/header", requestResolver);
+        tested.getSuperTypes("app/footer", requestResolver);
+        verify(resourceResolverFactory, times(1)).getServiceResourceResolver(anyMap());
+    }
+}
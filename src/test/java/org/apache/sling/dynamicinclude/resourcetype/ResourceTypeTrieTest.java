@@ -0,0 +1,69 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.dynamicinclude.resourcetype;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import org.junit.Test;
+
+public class ResourceTypeTrieTest {
+    private final ResourceTypeTrie trie = new ResourceTypeTrie(new String[] {
+        "myapp/components/dynamic/*", null, "myapp/components/**/personalized", "**/teaser", "myapp/*/*/list" });
+
+    @Test
+    public void testIsPattern() {
+        assertTrue(ResourceTypeTrie.isPattern("myapp/components/*"));
+        assertTrue(ResourceTypeTrie.isPattern("**/teaser"));
+        assertFalse(ResourceTypeTrie.isPattern("myapp/components/teaser"));
+        assertFalse(ResourceTypeTrie.isPattern("myapp/components/tea*"));
+    }
+
+    @Test
+    public void testMatch() {
+        assertEquals(bits(0), trie.match("myapp/components/dynamic/header"));
+        assertEquals(bits(2), trie.match("myapp/components/personalized"));
+        assertEquals(bits(0, 2), trie.match("myapp/components/dynamic/personalized"));
+        assertEquals(bits(2), trie.match("myapp/components/a/b/c/personalized"));
+        assertEquals(bits(3), trie.match("teaser"));
+        assertEquals(bits(3), trie.match("other/components/teaser"));
+        assertEquals(bits(4), trie.match("myapp/components/content/list"));
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertTrue(trie.match("myapp/components/dynamic").isEmpty());
+        assertTrue(trie.match("myapp/components/dynamic/header/child").isEmpty());
+        assertTrue(trie.match("myapp/components/personalized/child").isEmpty());
+        assertTrue(trie.match("myapp/components/list").isEmpty());
+        assertTrue(trie.match("").isEmpty());
+        assertTrue(trie.match(null).isEmpty());
+        assertTrue(new ResourceTypeTrie(new String[0]).isEmpty());
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet result = new BitSet();
+        for (int i : indexes) {
+            result.set(i);
+        }
+        return result;
+    }
+}
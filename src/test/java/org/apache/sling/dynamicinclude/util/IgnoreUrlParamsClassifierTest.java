@@ -0,0 +1,82 @@
+/*-
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.sling.dynamicinclude.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IgnoreUrlParamsClassifierTest {
+
+	@Test
+	public void shouldIgnoreNothingWithoutPatterns() {
+		IgnoreUrlParamsClassifier classifier = new IgnoreUrlParamsClassifier(Collections.<String>emptyList());
+
+		Assert.assertFalse(classifier.isIgnored("utm_source"));
+	}
+
+	@Test
+	public void shouldKeepClassifyingOnceVerdictCacheIsFull() {
+		IgnoreUrlParamsClassifier classifier = new IgnoreUrlParamsClassifier(Arrays.asList("utm_.*"));
+
+		for (int i = 0; i < 2000; i++) {
+			Assert.assertTrue(classifier.isIgnored("utm_" + i));
+			Assert.assertFalse(classifier.isIgnored("param" + i));
+		}
+	}
+
+	@Test
+	public void shouldMatchWholeParameterNameAgainstAnyPattern() {
+		IgnoreUrlParamsClassifier classifier = new IgnoreUrlParamsClassifier(
+				Arrays.asList("utm_.*", "gclid", "hello-[0-9]-world", "(?i)FBCLID"));
+
+		Assert.assertTrue(classifier.isIgnored("utm_source"));
+		Assert.assertTrue(classifier.isIgnored("utm_source"));
+		Assert.assertTrue(classifier.isIgnored("gclid"));
+		Assert.assertTrue(classifier.isIgnored("hello-1-world"));
+		Assert.assertTrue(classifier.isIgnored("fbclid"));
+		Assert.assertFalse(classifier.isIgnored("gclid2"));
+		Assert.assertFalse(classifier.isIgnored("xutm_source"));
+		Assert.assertFalse(classifier.isIgnored("hello-1-world-"));
+		Assert.assertFalse(classifier.isIgnored("GCLID"));
+	}
+
+	@Test
+	public void shouldKeepPatternsWithGroupReferencesSeparate() {
+		IgnoreUrlParamsClassifier classifier = new IgnoreUrlParamsClassifier(
+				Arrays.asList("(a)x", "(b)\\1", "(?<c>c)\\k<c>", "(?<c>d)", "\\Qe", "(?x)f # comment"));
+
+		Assert.assertTrue(classifier.isIgnored("ax"));
+		Assert.assertTrue(classifier.isIgnored("bb"));
+		Assert.assertTrue(classifier.isIgnored("cc"));
+		Assert.assertTrue(classifier.isIgnored("d"));
+		Assert.assertTrue(classifier.isIgnored("e"));
+		Assert.assertTrue(classifier.isIgnored("f"));
+		Assert.assertFalse(classifier.isIgnored("ba"));
+	}
+
+	@Test(expected = PatternSyntaxException.class)
+	public void shouldRejectInvalidPatterns() {
+		new IgnoreUrlParamsClassifier(Arrays.asList("valid", "inv(alid"));
+	}
+}